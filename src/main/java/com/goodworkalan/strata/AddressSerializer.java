@@ -0,0 +1,44 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A strategy for encoding tier addresses in and decoding tier addresses from
+ * page based tiers. Addresses are always encoded in a fixed width.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+public interface AddressSerializer<A> {
+    /**
+     * Get the fixed width of an encoded address.
+     * 
+     * @return The width of an address in bytes.
+     */
+    public int getWidth();
+
+    /**
+     * Read an address from the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the address.
+     * @return The address.
+     */
+    public A read(ByteBuffer buffer, int offset);
+
+    /**
+     * Write an address to the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the address.
+     * @param address
+     *            The address.
+     */
+    public void write(ByteBuffer buffer, int offset, A address);
+}
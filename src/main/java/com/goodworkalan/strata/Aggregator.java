@@ -0,0 +1,42 @@
+package com.goodworkalan.strata;
+
+/**
+ * A strategy for summarizing the records in the subtree of each branch of an
+ * inner tier, so that the summary of a range of records can be assembled from
+ * the summaries of the branches that lie entirely within the range without
+ * visiting their leaves.
+ * <p>
+ * Summaries are combined in b+tree order, so the combination must be
+ * associative, but it need not be commutative. A minimum, a maximum or a sum
+ * are typical summaries. The summary of a subtree with no records is null, so
+ * a summary is never combined with the summary of an empty subtree.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <S>
+ *            The type of summary.
+ */
+public interface Aggregator<T, S> {
+    /**
+     * Create the summary of a single record.
+     *
+     * @param record
+     *            The record.
+     * @return The summary of the record.
+     */
+    public S summarize(T record);
+
+    /**
+     * Combine the summary of a run of records with the summary of the run of
+     * records that immediately follows it.
+     *
+     * @param left
+     *            The summary of the lesser records.
+     * @param right
+     *            The summary of the greater records.
+     * @return The summary of both runs of records.
+     */
+    public S combine(S left, S right);
+}
@@ -0,0 +1,427 @@
+package com.goodworkalan.strata;
+
+import static com.goodworkalan.strata.Leaves.getNextAndLock;
+import static com.goodworkalan.strata.Leaves.link;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Insert an object into a b+tree in B-link mode, after Lehman and Yao.
+ * <p>
+ * The inner tiers are read locked with lock coupling during the descent and
+ * only the leaf is write locked. A full leaf is split by moving its upper
+ * records into a new leaf linked to its right. The split leaf is given a high
+ * key, the first record of the new leaf, so that a search that arrives at the
+ * split leaf for a record greater than or equal to the high key follows the
+ * right link. The leaf is released and only then is the branch to the new
+ * leaf added to the parent inner tier, which is found by a new lock coupled
+ * descent and write locked alone. Once the branch is added, the high key of the split
+ * tier is cleared while the parent is still write locked, so that a search
+ * that read the parent before the branch was added is still sent right. A
+ * parent that overflows is split the same way and its new sibling is added to
+ * its own parent in turn. A root that overflows is split in place.
+ * <p>
+ * High keys are present only while a split is in progress. Deletes are
+ * exclusive of inserts in B-link mode, so the generalized mutation that
+ * deletes never encounters a high key.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class BLinkInsert<T, A> {
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<T, A> structure;
+
+    /** The address of the root inner tier. */
+    private final A rootAddress;
+
+    /**
+     * Create a B-link insert.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param rootAddress
+     *            The address of the root inner tier.
+     */
+    public BLinkInsert(Stash stash, Structure<T, A> structure, A rootAddress) {
+        this.stash = stash;
+        this.structure = structure;
+        this.rootAddress = rootAddress;
+    }
+
+    /**
+     * Get the root inner tier of the b+tree, keeping it resident if the schema
+     * keeps levels resident. The root is returned pinned, the caller unpins it
+     * with {@link Structure#unpin(Tier)} once it is locked.
+     *
+     * @return The root inner tier of the b+tree.
+     */
+    private Tier<T, A> getRoot() {
+        Tier<T, A> root = structure.getStorage().load(stash, rootAddress);
+        structure.reside(root, 0);
+        return root;
+    }
+
+    /**
+     * Insert the given object.
+     *
+     * @param object
+     *            The object to insert.
+     */
+    public void insert(T object) {
+        Comparable<? super T> comparable = structure.getComparableFactory().newComparable(stash, object);
+        Mutation<T, A> mutation = new Mutation<T, A>(stash, structure, comparable, object, null);
+        Level<T, A> leafLevel = new Level<T, A>(true);
+        mutation.levels.add(leafLevel);
+
+        Tier<T, A> leaf = descend(comparable);
+        leafLevel.add_(leaf);
+
+        Tier<T, A> right = insert(mutation, leaf, leafLevel);
+        T pivot = right == null ? null : leaf.getHighKey();
+
+        leafLevel.releaseAndClear();
+
+        if (right != null) {
+            post(mutation, pivot, right, 1);
+        }
+        mutation.unpin();
+    }
+
+    /**
+     * Descend the b+tree with lock coupling to the leaf that contains the
+     * given comparable, following right links, and return the leaf write
+     * locked.
+     *
+     * @param comparable
+     *            The comparable representing the value to insert.
+     * @return The write locked leaf.
+     */
+    private Tier<T, A> descend(Comparable<? super T> comparable) {
+        Tier<T, A> inner = getRoot();
+        inner.readWriteLock.readLock().lock();
+        structure.unpin(inner);
+        for (int depth = 1;; depth++) {
+            inner = Tiers.chase(stash, structure, inner, comparable, false, Tiers.READ);
+            Tier<T, A> child = structure.getStorage().load(stash, inner.getChildAddress(inner.findBranch(comparable)));
+            if (inner.isChildLeaf()) {
+                child.readWriteLock.writeLock().lock();
+                structure.unpin(child);
+                inner.readWriteLock.readLock().unlock();
+                return Tiers.chase(stash, structure, child, comparable, true, Tiers.WRITE);
+            }
+            child.readWriteLock.readLock().lock();
+            structure.unpin(child);
+            inner.readWriteLock.readLock().unlock();
+            structure.reside(child, depth);
+            inner = child;
+        }
+    }
+
+    /**
+     * Insert the object of the given mutation into the given write locked
+     * leaf, splitting the leaf if it is full, and return the new leaf to the
+     * right of the leaf if the leaf split or null if it did not. The high key
+     * of a leaf that splits is the pivot of the new leaf.
+     * <p>
+     * As with the generalized mutation, a full leaf of duplicate index values
+     * is not split. An object equal to the duplicates is appended to the
+     * linked list of duplicate index values. An object that is less than the
+     * duplicates moves the duplicates to a new leaf to the right and takes
+     * their place, while an object that is greater is inserted into a new
+     * leaf after the end of the linked list.
+     *
+     * @param mutation
+     *            The mutation state container.
+     * @param leaf
+     *            The write locked leaf.
+     * @param leafLevel
+     *            The mutation state for the leaf level.
+     * @return The new right leaf or null if the leaf did not split.
+     */
+    private Tier<T, A> insert(Mutation<T, A> mutation, Tier<T, A> leaf, Level<T, A> leafLevel) {
+        Comparable<? super T> comparable = mutation.getComparable();
+        Stage<T, A> stage = structure.getStage();
+
+        // A leaf with a free slot takes the object without splitting.
+        if (leaf.getSize() < structure.getLeafSize()) {
+            leaf.addRecord(leaf.find(comparable), mutation.getObject());
+            stage.dirty(stash, leaf);
+            return null;
+        }
+
+        // An object equal to a full leaf of duplicates is appended to the
+        // linked list of duplicate index values.
+        Comparable<? super T> first = structure.getComparableFactory().newComparable(stash, leaf.getRecord(0));
+        boolean duplicates = first.compareTo(leaf.getRecord(leaf.getSize() - 1)) == 0;
+        if (duplicates && comparable.compareTo(leaf.getRecord(0)) == 0) {
+            new InsertLinkedList<T, A>(leaf).operate(mutation, leafLevel);
+            return null;
+        }
+
+        Tier<T, A> right = mutation.newLeafTier();
+        if (!duplicates) {
+            // Insert the object and move the records at and after the
+            // partition into the new right leaf.
+            leaf.addRecord(leaf.find(comparable), mutation.getObject());
+            int partition = SplitLeaf.getPartition(mutation, leaf);
+            link(mutation, leaf, right);
+            for (int i = partition, stop = leaf.getSize(); i < stop; i++) {
+                right.addRecord(right.getSize(), leaf.getRecord(i));
+            }
+            leaf.clear(partition, leaf.getSize() - partition);
+        } else if (comparable.compareTo(leaf.getRecord(0)) < 0) {
+            // Move the duplicates to the new right leaf, which the linked
+            // list of duplicate index values now follows.
+            for (int i = 0, stop = leaf.getSize(); i < stop; i++) {
+                right.addRecord(right.getSize(), leaf.getRecord(i));
+            }
+            leaf.clear(0, leaf.getSize());
+            link(mutation, leaf, right);
+            leaf.addRecord(0, mutation.getObject());
+        } else {
+            // Link the new right leaf after the end of the linked list of
+            // duplicate index values.
+            Tier<T, A> last = leaf;
+            for (;;) {
+                Tier<T, A> next = getNextAndLock(mutation, last, leafLevel);
+                if (next == null || first.compareTo(next.getRecord(0)) != 0) {
+                    break;
+                }
+                last = next;
+            }
+            link(mutation, last, right);
+            right.addRecord(0, mutation.getObject());
+        }
+
+        // The new leaf takes the high key of the leaf, the high key of the
+        // leaf becomes the pivot of the new leaf.
+        right.setHighKey(leaf.getHighKey());
+        leaf.setHighKey(right.getRecord(0));
+
+        // Stage the dirty tiers for write.
+        stage.dirty(stash, leaf);
+        stage.dirty(stash, right);
+
+        return right;
+    }
+
+    /**
+     * Add a branch to the given new right tier with the given pivot to the
+     * inner tier at the given height, where the height of an inner tier whose
+     * children are leaves is one, clear the high key of the tier that split
+     * and split the inner tier in turn if it overflows.
+     *
+     * @param mutation
+     *            The mutation state container.
+     * @param pivot
+     *            The pivot of the new right tier.
+     * @param right
+     *            The new right tier.
+     * @param height
+     *            The height of the parent inner tier.
+     */
+    private void post(Mutation<T, A> mutation, T pivot, Tier<T, A> right, int height) {
+        Comparable<? super T> comparable = structure.getComparableFactory().newComparable(stash, pivot);
+        Tier<T, A> parent = lockParent(comparable, height);
+
+        int index = parent.findBranch(comparable) + 1;
+        parent.addBranch(index, pivot, right.getAddress());
+        structure.getStage().dirty(stash, parent);
+
+        clearHighKey(parent.getChildAddress(index - 1), right.getAddress(), comparable, parent.isChildLeaf());
+
+        if (parent.getSize() <= structure.getInnerSize()) {
+            parent.readWriteLock.writeLock().unlock();
+        } else if (parent.getAddress().equals(rootAddress)) {
+            new SplitRoot<T, A>(parent).operate(mutation);
+            parent.readWriteLock.writeLock().unlock();
+        } else {
+            Tier<T, A> sibling = split(mutation, parent);
+            T highKey = parent.getHighKey();
+            parent.readWriteLock.writeLock().unlock();
+            post(mutation, highKey, sibling, height + 1);
+        }
+    }
+
+    /**
+     * Descend the b+tree to the inner tier at the given height that contains
+     * the given comparable and return it write locked. The height of the root
+     * is found while the root is read locked, so that the root cannot split
+     * while the inner tiers are counted down to the given height. The height
+     * of an inner tier other than the root never changes.
+     * <p>
+     * The descent is lock coupled and the inner tier at the given height is
+     * write locked before its parent is unlocked, so that the high key of the
+     * inner tier cannot be cleared by an insert that adds a branch to the
+     * parent before the inner tier is locked. The root is split in place, so
+     * a root that must be write locked is checked for the expected height once
+     * it is write locked.
+     *
+     * @param comparable
+     *            The comparable representing the pivot to add.
+     * @param height
+     *            The height of the inner tier.
+     * @return The write locked inner tier.
+     */
+    private Tier<T, A> lockParent(Comparable<? super T> comparable, int height) {
+        for (;;) {
+            Tier<T, A> inner = getRoot();
+            inner.readWriteLock.readLock().lock();
+            int rootHeight = getHeight(inner);
+            if (rootHeight == height) {
+                inner.readWriteLock.readLock().unlock();
+                inner.readWriteLock.writeLock().lock();
+                structure.unpin(inner);
+                if (getHeight(inner) == height) {
+                    return inner;
+                }
+                inner.readWriteLock.writeLock().unlock();
+                continue;
+            }
+            structure.unpin(inner);
+            for (int depth = 1;; depth++) {
+                inner = Tiers.chase(stash, structure, inner, comparable, false, Tiers.READ);
+                Tier<T, A> child = structure.getStorage().load(stash, inner.getChildAddress(inner.findBranch(comparable)));
+                if (rootHeight - depth == height) {
+                    child.readWriteLock.writeLock().lock();
+                    structure.unpin(child);
+                    inner.readWriteLock.readLock().unlock();
+                    structure.reside(child, depth);
+                    return Tiers.chase(stash, structure, child, comparable, false, Tiers.WRITE);
+                }
+                child.readWriteLock.readLock().lock();
+                structure.unpin(child);
+                inner.readWriteLock.readLock().unlock();
+                structure.reside(child, depth);
+                inner = child;
+            }
+        }
+    }
+
+    /**
+     * Get the height of the given locked root by descending its leftmost
+     * branches with lock coupling.
+     *
+     * @param root
+     *            The locked root.
+     * @return The height of the root.
+     */
+    private int getHeight(Tier<T, A> root) {
+        int height = 1;
+        Tier<T, A> inner = root;
+        while (!inner.isChildLeaf()) {
+            Tier<T, A> child = structure.getStorage().load(stash, inner.getChildAddress(0));
+            child.readWriteLock.readLock().lock();
+            structure.unpin(child);
+            if (inner != root) {
+                inner.readWriteLock.readLock().unlock();
+            }
+            inner = child;
+            height++;
+        }
+        if (inner != root) {
+            inner.readWriteLock.readLock().unlock();
+        }
+        return height;
+    }
+
+    /**
+     * Clear the high key equal to the given comparable, the pivot of a branch
+     * just added to the parent inner tier, by following the links from the
+     * child to the left of the new branch to the tier that split. The parent
+     * must be write locked, so that a search cannot read the parent before the
+     * branch was added and arrive at the tier after its high key is cleared.
+     * <p>
+     * A search that read the parent before the branch was added may still be
+     * following the right links between the child and the tier that split, so
+     * the links are followed with write lock coupling. The search stays ahead
+     * of the walk and reaches the tier that split before its high key is
+     * cleared, and the versions of the tiers walked are stamped anew for
+     * optimistic searches.
+     * <p>
+     * The tier that split is either the child to the left of the new branch or
+     * a tier whose own split has not yet been added to the parent, so that the
+     * next links of the tiers followed are valid. The leaves of a linked list
+     * of duplicate index values have no high key of their own.
+     *
+     * @param address
+     *            The address of the child to the left of the new branch.
+     * @param right
+     *            The address of the new right tier.
+     * @param comparable
+     *            The comparable representing the pivot of the new branch.
+     * @param leaf
+     *            Whether the children of the parent are leaves.
+     */
+    private void clearHighKey(A address, A right, Comparable<? super T> comparable, boolean leaf) {
+        Storage<T, A> storage = structure.getStorage();
+        Tier<T, A> tier = storage.load(stash, address);
+        tier.readWriteLock.writeLock().lock();
+        structure.unpin(tier);
+        for (;;) {
+            T highKey = tier.getHighKey();
+            if (highKey != null && comparable.compareTo(highKey) == 0) {
+                tier.setHighKey(null);
+                structure.getStage().dirty(stash, tier);
+                break;
+            }
+            if ((highKey == null && !leaf) || tier.getNext().equals(right)) {
+                break;
+            }
+            Tier<T, A> next = storage.load(stash, tier.getNext());
+            next.readWriteLock.writeLock().lock();
+            structure.unpin(next);
+            tier.readWriteLock.writeLock().unlock();
+            tier = next;
+        }
+        tier.readWriteLock.writeLock().unlock();
+    }
+
+    /**
+     * Split the given write locked inner tier by moving its upper half into a
+     * new inner tier linked to its right, giving the inner tier the pivot of
+     * the new inner tier as its high key.
+     *
+     * @param mutation
+     *            The mutation state container.
+     * @param inner
+     *            The inner tier to split.
+     * @return The new right inner tier.
+     */
+    private Tier<T, A> split(Mutation<T, A> mutation, Tier<T, A> inner) {
+        Tier<T, A> right = mutation.newInnerTier(inner.isChildLeaf());
+
+        int partition = inner.getSize() / 2;
+        for (int i = partition, stop = inner.getSize(); i < stop; i++) {
+            right.addBranch(right.getSize(), inner.getRecord(i), inner.getChildAddress(i));
+        }
+        inner.clear(partition, inner.getSize() - partition);
+
+        // The pivot of the new inner tier is the high key of the inner tier
+        // and the left-most pivot of the new inner tier is null.
+        T pivot = right.getRecord(0);
+        right.setRecord(0, null);
+
+        right.setHighKey(inner.getHighKey());
+        right.setNext(inner.getNext());
+        inner.setHighKey(pivot);
+        inner.setNext(right.getAddress());
+
+        // Stage the dirty tiers for write.
+        Stage<T, A> stage = structure.getStage();
+        stage.dirty(stash, inner);
+        stage.dirty(stash, right);
+
+        return right;
+    }
+}
@@ -0,0 +1,36 @@
+package com.goodworkalan.strata;
+
+import java.util.List;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A strategy for persistent storage that can write the dirty tiers of a flush
+ * as a single batch. A stage writes its dirty tiers with
+ * {@link #writeBatch(Stash, List) writeBatch} if its storage implements this
+ * interface, otherwise it writes them one at a time with
+ * {@link Storage#write(Stash, Tier) write}, so that storage strategies that
+ * have no use for batches need not implement it.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <Record>
+ *            The value type of the b+tree objects.
+ * @param <Address>
+ *            The address type used to identify an inner or leaf tier.
+ */
+public interface BatchStorage<Record, Address>
+extends Storage<Record, Address> {
+    /**
+     * Write a batch of storage cassettes. The tiers are given in no particular
+     * order. Only the storage knows how its addresses map to the underlying
+     * medium, so the storage is free to order the writes by address and to
+     * coalesce the writes of tiers that are adjacent in the medium.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    public void writeBatch(Stash stash, List<Tier<Record, Address>> tiers);
+}
@@ -0,0 +1,319 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Builds a b+tree bottom-up from an iterator of records in b+tree order. The
+ * leaves are packed to a target fill and the inner tiers are built level by
+ * level as the leaves are filled, so that each tier is written exactly once,
+ * when it is complete.
+ * <p>
+ * A run of records with equal index values is never split across two leaves
+ * that are referenced by an inner tier. If a run would overflow the current
+ * leaf, the run is moved to a new leaf. If a run fills an entire leaf, the
+ * rest of the run is appended to a linked list of leaves that are not
+ * referenced by an inner tier, the same linked list of duplicates built by an
+ * insert.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class BulkLoader<T, A> {
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The persistent storage strategy. */
+    private final Storage<T, A> storage;
+
+    /** The comparable factory that defines the order of the b+tree. */
+    private final ComparableFactory<T> comparableFactory;
+
+    /** The capacity of branches of an inner tier. */
+    private final int innerCapacity;
+
+    /** The capacity of object values of a leaf tier. */
+    private final int leafCapacity;
+
+    /** The count of branches at which an inner tier is complete. */
+    private final int innerFill;
+
+    /** The count of records at which a leaf is considered full. */
+    private final int leafFill;
+
+    /** Whether leaves are linked to their previous leaves. */
+    private final boolean reverseLinks;
+
+    /** Whether the records in the subtree of each branch are counted. */
+    private final boolean counted;
+
+    /** The strategy to summarize the records of each branch or null. */
+    private final Aggregator<T, Object> aggregator;
+
+    /** The inner tier being filled at each level, the leaf parents first. */
+    private final List<Tier<T, A>> inners = new ArrayList<Tier<T, A>>();
+
+    /** The leaf being filled. */
+    private Tier<T, A> leaf;
+
+    /** Whether the leaf is in a linked list of duplicates. */
+    private boolean duplicates;
+
+    /** The count of records of the branch of the leaf being filled. */
+    private long count;
+
+    /** The summary of the records of the branch of the leaf being filled. */
+    private Object summary;
+
+    /**
+     * Create a bulk loader.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param storage
+     *            The persistent storage strategy.
+     * @param schema
+     *            The schema that defines the capacities and order of the
+     *            b+tree.
+     * @param fillFactor
+     *            The fraction of the capacity of each tier to fill.
+     */
+    public BulkLoader(Stash stash, Storage<T, A> storage, Schema<T> schema, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException();
+        }
+        this.stash = stash;
+        this.storage = storage;
+        this.comparableFactory = schema.getComparableFactory();
+        this.innerCapacity = schema.getInnerCapacity();
+        this.leafCapacity = schema.getLeafCapacity();
+        this.innerFill = Math.max(2, Math.min(innerCapacity, (int) Math.ceil(innerCapacity * fillFactor)));
+        this.leafFill = Math.max(1, Math.min(leafCapacity, (int) Math.ceil(leafCapacity * fillFactor)));
+        this.reverseLinks = schema.isReverseLinks();
+        this.counted = schema.isCounted();
+        this.aggregator = Structure.cast(schema.getAggregator());
+    }
+
+    /**
+     * Count and summarize the given record as a record of the branch of the
+     * leaf being filled.
+     * 
+     * @param record
+     *            The record.
+     */
+    private void summarize(T record) {
+        count++;
+        if (aggregator != null) {
+            summary = Structure.combine(aggregator, summary, aggregator.summarize(record));
+        }
+    }
+
+    /**
+     * Set the count and summary of the last branch of the given inner tier,
+     * the branch that is complete.
+     * 
+     * @param inner
+     *            The inner tier.
+     * @param count
+     *            The count of records of the branch.
+     * @param summary
+     *            The summary of the records of the branch.
+     */
+    private void setSummary(Tier<T, A> inner, long count, Object summary) {
+        int last = inner.getSize() - 1;
+        if (counted) {
+            inner.setCount(last, count);
+        }
+        if (aggregator != null) {
+            inner.setSummary(last, summary);
+        }
+    }
+
+    /**
+     * Set the count and summary of the last branch of the given parent inner
+     * tier from the branches of the given child inner tier, which is complete.
+     * 
+     * @param child
+     *            The complete child inner tier.
+     * @param parent
+     *            The parent inner tier whose last branch is the child.
+     */
+    private void setSummary(Tier<T, A> child, Tier<T, A> parent) {
+        long count = 0;
+        Object summary = null;
+        for (int i = 0, stop = child.getSize(); i < stop; i++) {
+            if (counted) {
+                count += child.getCount(i);
+            }
+            if (aggregator != null) {
+                summary = Structure.combine(aggregator, summary, child.getSummary(i));
+            }
+        }
+        setSummary(parent, count, summary);
+    }
+
+    /**
+     * Set the count and summary of the branch of the leaf being filled, which
+     * is complete, and start the count and summary of a new branch.
+     */
+    private void closeBranch() {
+        setSummary(inners.get(0), count, summary);
+        count = 0;
+        summary = null;
+    }
+
+    /**
+     * Allocate a leaf and link it after the current leaf, writing the current
+     * leaf, whose contents and next link are now complete. If the new leaf is
+     * not a duplicate of the current leaf, a branch for the new leaf is added
+     * to the inner tier of the leaf parents.
+     * 
+     * @param duplicates
+     *            Whether the new leaf continues a linked list of duplicates.
+     * @param pivot
+     *            The first record of the new leaf.
+     */
+    private void newLeaf(boolean duplicates, T pivot) {
+        Tier<T, A> next = storage.allocate(true, leafCapacity);
+        next.setNext(storage.getNull());
+        if (reverseLinks) {
+            next.setPrevious(leaf == null ? storage.getNull() : leaf.getAddress());
+        }
+        if (leaf != null) {
+            leaf.setNext(next.getAddress());
+            storage.write(stash, leaf);
+        }
+        if (!duplicates) {
+            if (leaf != null) {
+                closeBranch();
+            }
+            addBranch(0, pivot, next.getAddress());
+        }
+        this.leaf = next;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Add a branch to the inner tier being filled at the given level. If the
+     * inner tier is complete, it is written and a new inner tier is started
+     * with the branch, and a branch for the new inner tier is added to the
+     * level above.
+     * 
+     * @param level
+     *            The level, where zero is the level of leaf parents.
+     * @param pivot
+     *            The pivot of the branch.
+     * @param address
+     *            The address of the child.
+     */
+    private void addBranch(int level, T pivot, A address) {
+        if (level == inners.size()) {
+            Tier<T, A> inner = storage.allocate(false, innerCapacity);
+            inner.setChildLeaf(level == 0);
+            inner.addBranch(0, null, address);
+            inners.add(inner);
+            return;
+        }
+        Tier<T, A> inner = inners.get(level);
+        if (inner.getSize() < innerFill) {
+            inner.addBranch(inner.getSize(), pivot, address);
+            return;
+        }
+        storage.write(stash, inner);
+        Tier<T, A> next = storage.allocate(false, innerCapacity);
+        next.setChildLeaf(level == 0);
+        next.addBranch(0, null, address);
+        inners.set(level, next);
+        if (level + 1 == inners.size()) {
+            Tier<T, A> parent = storage.allocate(false, innerCapacity);
+            parent.setChildLeaf(false);
+            parent.addBranch(0, null, inner.getAddress());
+            inners.add(parent);
+        }
+        setSummary(inner, inners.get(level + 1));
+        addBranch(level + 1, pivot, next.getAddress());
+    }
+
+    /**
+     * Add the given record, which must be greater than or equal to the last
+     * record added, to the b+tree.
+     * 
+     * @param record
+     *            The record.
+     */
+    private void add(T record) {
+        if (leaf == null) {
+            newLeaf(false, record);
+        } else {
+            int size = leaf.getSize();
+            Comparable<? super T> comparable = comparableFactory.newComparable(stash, record);
+            int compare = comparable.compareTo(leaf.getRecord(size - 1));
+            if (compare < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (compare != 0) {
+                if (duplicates || size >= leafFill) {
+                    newLeaf(false, record);
+                }
+            } else if (size == leafCapacity) {
+                if (duplicates || comparable.compareTo(leaf.getRecord(0)) == 0) {
+                    newLeaf(true, record);
+                } else {
+                    int start = leaf.find(comparable);
+                    List<T> run = new ArrayList<T>();
+                    for (int i = start; i < size; i++) {
+                        run.add(leaf.getRecord(i));
+                    }
+                    leaf.clear(start, size - start);
+                    count = 0;
+                    summary = null;
+                    for (int i = 0; i < start; i++) {
+                        summarize(leaf.getRecord(i));
+                    }
+                    newLeaf(false, run.get(0));
+                    for (T duplicate : run) {
+                        leaf.addRecord(leaf.getSize(), duplicate);
+                        summarize(duplicate);
+                    }
+                }
+            }
+        }
+        leaf.addRecord(leaf.getSize(), record);
+        summarize(record);
+    }
+
+    /**
+     * Load the records of the given iterator, which must be in b+tree order,
+     * and return the address of the root inner tier of the new b+tree.
+     * 
+     * @param records
+     *            The records in b+tree order.
+     * @return The address of the root inner tier.
+     * @exception IllegalArgumentException
+     *                If the records are not in b+tree order.
+     */
+    public A load(Iterator<T> records) {
+        while (records.hasNext()) {
+            add(records.next());
+        }
+        if (leaf == null) {
+            newLeaf(false, null);
+        }
+        storage.write(stash, leaf);
+        closeBranch();
+        for (int i = 1; i < inners.size(); i++) {
+            setSummary(inners.get(i - 1), inners.get(i));
+        }
+        for (Tier<T, A> inner : inners) {
+            storage.write(stash, inner);
+        }
+        return inners.get(inners.size() - 1).getAddress();
+    }
+}
@@ -0,0 +1,581 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A tier that stores records and child addresses in fixed width slots of a
+ * byte buffer, so that the contents of the tier are not a collection of objects on
+ * the heap. A tier that allocates its own buffer allocates a direct buffer,
+ * which keeps the contents of the tier off of the heap entirely.
+ * <p>
+ * The buffer begins with a flags byte, the size of the tier as an integer, the
+ * address of the next leaf, the address of the previous leaf and the high key
+ * of the tier, which is present only if its flag is set. The header is
+ * followed by the record slots.
+ * Each slot contains a byte that is zero if the record is null, the record and,
+ * if the tier is an inner tier, the child address, the count of records in
+ * the subtree of the branch and, if there is a summary serializer, a byte that
+ * is zero if the summary is null and the summary of the records in the subtree
+ * of the branch.
+ * <p>
+ * Adding and removing records and branches moves the slots after the index in
+ * a single memory move of long words, there is no per record copying and no
+ * per record allocation.
+ * <p>
+ * Records, addresses and summaries are read from and written to the buffer by
+ * the record, address and summary serializers.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+public abstract class ByteBufferTier<T, A>
+extends Tier<T, A> {
+    /** The offset of the flags byte. */
+    private final static int FLAGS = 0;
+
+    /** The offset of the size of the tier. */
+    private final static int SIZE = 1;
+
+    /** The offset of the address of the next leaf. */
+    private final static int NEXT = 5;
+
+    /** The flag that indicates that the tier is a leaf. */
+    private final static int LEAF = 1;
+
+    /** The width of the count of records in the subtree of a branch. */
+    private final static int COUNT_SIZE = 8;
+
+    /** The flag that indicates that the children of the tier are leaves. */
+    private final static int CHILD_LEAF = 2;
+
+    /** The flag that indicates that the tier has a high key. */
+    private final static int HIGH_KEY = 4;
+
+    /** The buffer that contains the tier. */
+    private final ByteBuffer buffer;
+
+    /** The record serializer. */
+    private final RecordSerializer<T> recordSerializer;
+
+    /** The address serializer. */
+    private final AddressSerializer<A> addressSerializer;
+
+    /** The summary serializer or null if branches are not summarized. */
+    private final RecordSerializer<Object> summarySerializer;
+
+    /** The width of a record slot. */
+    private final int recordSize;
+
+    /** The size of a record and branch slot. */
+    private final int slotSize;
+
+    /** The offset of the branch count within a slot. */
+    private final int count;
+
+    /** The offset of the branch summary within a slot. */
+    private final int summary;
+
+    /** The offset of the address of the previous leaf. */
+    private final int previous;
+
+    /** The offset of the high key. */
+    private final int highKey;
+
+    /** The offset of the first slot. */
+    private final int slots;
+
+    /**
+     * Create a tier that is a view of an existing tier in the given buffer.
+     *
+     * @param buffer
+     *            The buffer that contains the tier.
+     * @param recordSerializer
+     *            The record serializer.
+     * @param addressSerializer
+     *            The address serializer.
+     */
+    protected ByteBufferTier(ByteBuffer buffer, RecordSerializer<T> recordSerializer, AddressSerializer<A> addressSerializer) {
+        this(buffer, recordSerializer, addressSerializer, null);
+    }
+
+    /**
+     * Create a tier that is a view of an existing tier in the given buffer
+     * whose branches are summarized by the given summary serializer.
+     *
+     * @param buffer
+     *            The buffer that contains the tier.
+     * @param recordSerializer
+     *            The record serializer.
+     * @param addressSerializer
+     *            The address serializer.
+     * @param summarySerializer
+     *            The summary serializer or null if branches are not
+     *            summarized.
+     */
+    @SuppressWarnings("unchecked")
+    protected ByteBufferTier(ByteBuffer buffer, RecordSerializer<T> recordSerializer, AddressSerializer<A> addressSerializer, RecordSerializer<?> summarySerializer) {
+        this.buffer = buffer;
+        this.recordSerializer = recordSerializer;
+        this.addressSerializer = addressSerializer;
+        this.summarySerializer = (RecordSerializer<Object>) summarySerializer;
+        this.recordSize = recordSerializer.getWidth();
+        this.slotSize = getSlotSize(recordSize, addressSerializer.getWidth(), getSummarySize(summarySerializer), (buffer.get(FLAGS) & LEAF) != 0);
+        this.count = 1 + recordSize + addressSerializer.getWidth();
+        this.summary = count + COUNT_SIZE;
+        this.previous = NEXT + addressSerializer.getWidth();
+        this.highKey = previous + addressSerializer.getWidth();
+        this.slots = getHeaderSize(recordSize, addressSerializer.getWidth());
+    }
+
+    /**
+     * Create an empty tier in a new direct buffer large enough to hold one
+     * more than the given capacity of records or branches, since a tier will
+     * briefly hold one more than its capacity before it splits.
+     *
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @param recordSerializer
+     *            The record serializer.
+     * @param addressSerializer
+     *            The address serializer.
+     */
+    protected ByteBufferTier(boolean leaf, int capacity, RecordSerializer<T> recordSerializer, AddressSerializer<A> addressSerializer) {
+        this(initialize(ByteBuffer.allocateDirect(getBufferSize(leaf, capacity, recordSerializer.getWidth(), addressSerializer.getWidth(), 0)), leaf), recordSerializer, addressSerializer);
+    }
+
+    /**
+     * Get the width of the summary of a branch for the given summary
+     * serializer, including the byte that indicates a null summary.
+     *
+     * @param summarySerializer
+     *            The summary serializer or null if branches are not
+     *            summarized.
+     * @return The width of a branch summary or zero if branches are not
+     *         summarized.
+     */
+    static int getSummarySize(RecordSerializer<?> summarySerializer) {
+        return summarySerializer == null ? 0 : 1 + summarySerializer.getWidth();
+    }
+
+    /**
+     * Get the size of the header for the given record and address sizes.
+     *
+     * @param recordSize
+     *            The width of a record slot.
+     * @param addressSize
+     *            The fixed width of an encoded address.
+     * @return The size of the header.
+     */
+    static int getHeaderSize(int recordSize, int addressSize) {
+        return NEXT + addressSize * 2 + recordSize;
+    }
+
+    /**
+     * Get the size of a record and branch slot.
+     *
+     * @param recordSize
+     *            The width of a record slot.
+     * @param addressSize
+     *            The fixed width of an encoded address.
+     * @param summarySize
+     *            The width of a branch summary.
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @return The size of a slot.
+     */
+    static int getSlotSize(int recordSize, int addressSize, int summarySize, boolean leaf) {
+        return 1 + recordSize + (leaf ? 0 : addressSize + COUNT_SIZE + summarySize);
+    }
+
+    /**
+     * Get the size of a buffer that will hold a tier of one more than the
+     * given capacity.
+     *
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @param recordSize
+     *            The width of a record slot.
+     * @param addressSize
+     *            The fixed width of an encoded address.
+     * @param summarySize
+     *            The width of a branch summary.
+     * @return The size of the buffer.
+     */
+    static int getBufferSize(boolean leaf, int capacity, int recordSize, int addressSize, int summarySize) {
+        return getHeaderSize(recordSize, addressSize) + (capacity + 1) * getSlotSize(recordSize, addressSize, summarySize, leaf);
+    }
+
+    /**
+     * Write an empty tier header without a high key to the given buffer. The
+     * next and previous addresses are not written and it is up to the
+     * subclass to set the null address.
+     *
+     * @param buffer
+     *            The buffer.
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @return The buffer.
+     */
+    static ByteBuffer initialize(ByteBuffer buffer, boolean leaf) {
+        buffer.put(FLAGS, (byte) (leaf ? LEAF : 0));
+        buffer.putInt(SIZE, 0);
+        return buffer;
+    }
+
+    /**
+     * Get the offset of the slot at the given index.
+     *
+     * @param index
+     *            The slot index.
+     * @return The offset of the slot in the buffer.
+     */
+    private int getOffset(int index) {
+        return slots + index * slotSize;
+    }
+
+    /**
+     * Move the given length of bytes from the given offset to the given offset
+     * in the buffer. The bytes are moved a long word at a time in the direction
+     * that will not overwrite bytes that have yet to be moved.
+     *
+     * @param from
+     *            The offset to move from.
+     * @param to
+     *            The offset to move to.
+     * @param length
+     *            The number of bytes to move.
+     */
+    private void move(int from, int to, int length) {
+        int words = length & ~7;
+        if (to > from) {
+            for (int i = length - 1; i >= words; i--) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+            for (int i = words - 8; i >= 0; i -= 8) {
+                buffer.putLong(to + i, buffer.getLong(from + i));
+            }
+        } else {
+            for (int i = 0; i < words; i += 8) {
+                buffer.putLong(to + i, buffer.getLong(from + i));
+            }
+            for (int i = words; i < length; i++) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+        }
+    }
+
+    /**
+     * Write the given record into the slot at the given index.
+     *
+     * @param index
+     *            The slot index.
+     * @param record
+     *            The record.
+     */
+    private void putRecord(int index, T record) {
+        int offset = getOffset(index);
+        if (record == null) {
+            buffer.put(offset, (byte) 0);
+        } else {
+            buffer.put(offset, (byte) 1);
+            recordSerializer.write(buffer, offset + 1, record);
+        }
+    }
+
+    /**
+     * Open a slot at the given index by moving the slots at and after the index
+     * one slot to the right.
+     *
+     * @param index
+     *            The slot index.
+     */
+    private void insert(int index) {
+        int size = getSize();
+        move(getOffset(index), getOffset(index + 1), (size - index) * slotSize);
+        buffer.putInt(SIZE, size + 1);
+    }
+
+    /**
+     * Get the size of the tier in bytes, the capacity of its buffer.
+     * 
+     * @return The size of the tier in bytes.
+     */
+    @Override
+    public int getByteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Get whether the child tier is a leaf.
+     *
+     * @return True if the child tier is a leaf.
+     */
+    @Override
+    public boolean isChildLeaf() {
+        return (buffer.get(FLAGS) & CHILD_LEAF) != 0;
+    }
+
+    /**
+     * Set whether the child tier is a leaf.
+     *
+     * @param leaf
+     *            True if the child tier is a leaf.
+     */
+    @Override
+    public void setChildLeaf(boolean leaf) {
+        int flags = buffer.get(FLAGS);
+        buffer.put(FLAGS, (byte) (leaf ? flags | CHILD_LEAF : flags & ~CHILD_LEAF));
+    }
+
+    /**
+     * Get address of the next leaf in the b-tree.
+     *
+     * @return The address of the next leaf.
+     */
+    @Override
+    public A getNext() {
+        return addressSerializer.read(buffer, NEXT);
+    }
+
+    /**
+     * Set the address the next leaf in the b-tree.
+     *
+     * @param next
+     *            The address of the next leaf.
+     */
+    @Override
+    public void setNext(A next) {
+        addressSerializer.write(buffer, NEXT, next);
+    }
+
+    /**
+     * Get address of the previous leaf in the b-tree.
+     * 
+     * @return The address of the previous leaf.
+     */
+    @Override
+    public A getPrevious() {
+        return addressSerializer.read(buffer, previous);
+    }
+
+    /**
+     * Set the address the previous leaf in the b-tree.
+     * 
+     * @param previous
+     *            The address of the previous leaf.
+     */
+    @Override
+    public void setPrevious(A previous) {
+        addressSerializer.write(buffer, this.previous, previous);
+    }
+
+    /**
+     * Get the high key of the tier from the buffer.
+     *
+     * @return The high key or null.
+     */
+    @Override
+    public T getHighKey() {
+        if ((buffer.get(FLAGS) & HIGH_KEY) == 0) {
+            return null;
+        }
+        return recordSerializer.read(buffer, highKey);
+    }
+
+    /**
+     * Write the high key of the tier to the buffer.
+     *
+     * @param highKey
+     *            The high key or null.
+     */
+    @Override
+    public void setHighKey(T highKey) {
+        int flags = buffer.get(FLAGS);
+        if (highKey == null) {
+            buffer.put(FLAGS, (byte) (flags & ~HIGH_KEY));
+        } else {
+            recordSerializer.write(buffer, this.highKey, highKey);
+            buffer.put(FLAGS, (byte) (flags | HIGH_KEY));
+        }
+    }
+
+    /**
+     * Read a record from the buffer.
+     *
+     * @param index
+     *            The index of the record.
+     */
+    @Override
+    public T getRecord(int index) {
+        int offset = getOffset(index);
+        if (buffer.get(offset) == 0) {
+            return null;
+        }
+        return recordSerializer.read(buffer, offset + 1);
+    }
+
+    /**
+     * Read a child address from the buffer.
+     *
+     * @param index
+     *            The index of the child address.
+     */
+    @Override
+    public A getChildAddress(int index) {
+        return addressSerializer.read(buffer, getOffset(index) + 1 + recordSize);
+    }
+
+    /**
+     * Add a record and branch to the buffer.
+     *
+     * @param index
+     *            The index of the branch.
+     * @param record
+     *            The pivot record.
+     * @param address
+     *            The child address.
+     */
+    @Override
+    public void addBranch(int index, T record, A address) {
+        insert(index);
+        putRecord(index, record);
+        addressSerializer.write(buffer, getOffset(index) + 1 + recordSize, address);
+        buffer.putLong(getOffset(index) + count, 0L);
+        if (summarySerializer != null) {
+            buffer.put(getOffset(index) + summary, (byte) 0);
+        }
+    }
+
+    /**
+     * Read the count of records in the subtree of a branch from the buffer.
+     *
+     * @param index
+     *            The index of the branch.
+     * @return The count of records in the subtree of the branch.
+     */
+    @Override
+    public long getCount(int index) {
+        return buffer.getLong(getOffset(index) + count);
+    }
+
+    /**
+     * Write the count of records in the subtree of a branch to the buffer.
+     *
+     * @param index
+     *            The index of the branch.
+     * @param count
+     *            The count of records in the subtree of the branch.
+     */
+    @Override
+    public void setCount(int index, long count) {
+        buffer.putLong(getOffset(index) + this.count, count);
+    }
+
+    /**
+     * Read the summary of the records in the subtree of a branch from the
+     * buffer.
+     *
+     * @param index
+     *            The index of the branch.
+     * @return The summary of the records in the subtree of the branch.
+     * @exception UnsupportedOperationException
+     *                If there is no summary serializer.
+     */
+    @Override
+    public Object getSummary(int index) {
+        if (summarySerializer == null) {
+            throw new UnsupportedOperationException();
+        }
+        int offset = getOffset(index) + summary;
+        if (buffer.get(offset) == 0) {
+            return null;
+        }
+        return summarySerializer.read(buffer, offset + 1);
+    }
+
+    /**
+     * Write the summary of the records in the subtree of a branch to the
+     * buffer.
+     *
+     * @param index
+     *            The index of the branch.
+     * @param summary
+     *            The summary of the records in the subtree of the branch.
+     * @exception UnsupportedOperationException
+     *                If there is no summary serializer.
+     */
+    @Override
+    public void setSummary(int index, Object summary) {
+        if (summarySerializer == null) {
+            throw new UnsupportedOperationException();
+        }
+        int offset = getOffset(index) + this.summary;
+        if (summary == null) {
+            buffer.put(offset, (byte) 0);
+        } else {
+            buffer.put(offset, (byte) 1);
+            summarySerializer.write(buffer, offset + 1, summary);
+        }
+    }
+
+    /**
+     * Add a record to the buffer.
+     *
+     * @param index
+     *            The index of the record.
+     * @param record
+     *            The record.
+     */
+    @Override
+    public void addRecord(int index, T record) {
+        insert(index);
+        putRecord(index, record);
+    }
+
+    /**
+     * Replace the record at the given index.
+     *
+     * @param index
+     *            The index of the record.
+     * @param record
+     *            The record.
+     */
+    @Override
+    public void setRecord(int index, T record) {
+        putRecord(index, record);
+    }
+
+    /**
+     * Get the size of the tier in records.
+     *
+     * @return The size.
+     */
+    @Override
+    public int getSize() {
+        return buffer.getInt(SIZE);
+    }
+
+    /**
+     * Remove the records and branch addresses from the given index for the
+     * given count of records by moving the subsequent slots to the left.
+     *
+     * @param start
+     *            The index of the record.
+     * @param count
+     *            The count of records.
+     */
+    @Override
+    public void clear(int start, int count) {
+        int size = getSize();
+        move(getOffset(start + count), getOffset(start), (size - start - count) * slotSize);
+        buffer.putInt(SIZE, size - count);
+    }
+}
@@ -0,0 +1,121 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An eviction strategy that approximates least recently used with the CLOCK
+ * algorithm. Tiers are kept in a ring of frames with a reference bit that is
+ * set when the tier is accessed. A clock hand sweeps the ring, clearing the
+ * reference bit of referenced tiers and choosing the first tier that is not
+ * referenced and not pinned.
+ * <p>
+ * Unlike least recently used, an access does not reorder a list, it only sets
+ * a flag, so that accessing the hot inner tiers of the b+tree is cheap.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class ClockEviction<T, A> implements Eviction<T, A> {
+    /** The ring of frames. */
+    private final List<Frame<T, A>> ring = new ArrayList<Frame<T, A>>();
+
+    /** The frames by tier address. */
+    private final Map<A, Frame<T, A>> frames = new HashMap<A, Frame<T, A>>();
+
+    /** The frames in the ring that are empty. */
+    private final LinkedList<Frame<T, A>> empty = new LinkedList<Frame<T, A>>();
+
+    /** The index of the clock hand in the ring. */
+    private int hand;
+
+    /**
+     * Place the given tier in an empty frame, or in a new frame if there are no
+     * empty frames.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void admit(Tier<T, A> tier) {
+        Frame<T, A> frame = empty.isEmpty() ? null : empty.removeFirst();
+        if (frame == null) {
+            frame = new Frame<T, A>();
+            ring.add(frame);
+        }
+        frame.tier = tier;
+        frame.referenced = true;
+        frames.put(tier.getAddress(), frame);
+    }
+
+    /**
+     * Set the reference bit of the frame of the given tier.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void access(Tier<T, A> tier) {
+        Frame<T, A> frame = frames.get(tier.getAddress());
+        if (frame != null) {
+            frame.referenced = true;
+        }
+    }
+
+    /**
+     * Empty the frame of the given tier.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void remove(Tier<T, A> tier) {
+        Frame<T, A> frame = frames.remove(tier.getAddress());
+        if (frame != null) {
+            frame.tier = null;
+            empty.add(frame);
+        }
+    }
+
+    /**
+     * Sweep the clock hand around the ring to find a tier that is not
+     * referenced and not pinned, clearing the reference bit of the tiers that
+     * are referenced. The ring is swept at most twice.
+     * 
+     * @return A tier to evict or null if every tier is pinned.
+     */
+    public Tier<T, A> victim() {
+        int size = ring.size();
+        for (int i = 0, stop = size * 2; i < stop; i++) {
+            Frame<T, A> frame = ring.get(hand);
+            hand = (hand + 1) % size;
+            if (frame.tier != null && !frame.tier.isPinned()) {
+                if (!frame.referenced) {
+                    return frame.tier;
+                }
+                frame.referenced = false;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A frame in the ring.
+     * 
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     */
+    private final static class Frame<T, A> {
+        /** The tier or null if the frame is empty. */
+        public Tier<T, A> tier;
+
+        /** Whether the tier has been accessed since the hand last passed. */
+        public boolean referenced;
+    }
+}
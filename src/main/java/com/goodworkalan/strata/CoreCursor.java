@@ -53,19 +53,33 @@ implements Cursor<Record> {
 
     /**
      * Create a new cursor that starts from the current location of this cursor.
+     * The new cursor holds its own read lock on the current leaf tier, so that
+     * it must be released separately. If this cursor has been released, the
+     * new cursor is also released.
      * 
      * @return A new cursor based on this cursor.
      */
     public Cursor<Record> newCursor() {
-        return new CoreCursor<Record, Address>(stash, structure, leaf, index);
+        CoreCursor<Record, Address> cursor = new CoreCursor<Record, Address>(stash, structure, leaf, index);
+        if (released) {
+            cursor.released = true;
+        } else {
+            leaf.readWriteLock.readLock().lock();
+        }
+        return cursor;
     }
 
-  /**
-     * Return true if the cursor has more values.
+    /**
+     * Return true if the cursor has more values. A cursor that has been
+     * released, either explicitly or because it reached the last value, has no
+     * more values.
      * 
      * @return True if the cursor has more values.
      */
     public boolean hasNext() {
+        if (released) {
+            return false;
+        }
         return index < leaf.getSize() || !structure.getStorage().isNull(leaf.getNext());
     }
 
@@ -84,7 +98,8 @@ implements Cursor<Record> {
             }
             Tier<Record, Address> next = structure.getStorage().load(stash, leaf.getNext());
             next.readWriteLock.readLock().lock();
-            next.readWriteLock.readLock().unlock();
+            structure.unpin(next);
+            leaf.readWriteLock.readLock().unlock();
             leaf = next;
             index = 0;
         }
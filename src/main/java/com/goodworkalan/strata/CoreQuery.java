@@ -1,5 +1,12 @@
 package com.goodworkalan.strata;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -40,6 +47,12 @@ implements Query<Record> {
     /** The collection of the core services of the b+tree. */
     private final Structure<Record, Address> structure;
     
+    /**
+     * The number of times to descend the b+tree optimistically before falling
+     * back to a descent with lock coupling.
+     */
+    private final static int OPTIMISTIC_ATTEMPTS = 3;
+
     /**
      * The count of times that the exclusive insert or delete lock was locked
      * by begin and then not unlocked by end because there were dirty pages
@@ -93,20 +106,28 @@ implements Query<Record> {
     }
 
     /**
-     * Get the root inner tier of the b+tree.
+     * Get the root inner tier of the b+tree, keeping it resident if the schema
+     * keeps levels resident. The root is returned pinned, the caller unpins it
+     * with {@link Structure#unpin(Tier)} once it is locked.
      * 
      * @return The root inner tier of the b+tree.
      */
     private Tier<Record, Address> getRoot() {
-        return structure.getStorage().load(stash, strata.getRootAddress());
+        Tier<Record, Address> root = strata.getRoot(stash);
+        structure.pin(root);
+        return root;
     }
 
     /**
      * Tests to see if the child is in a state where it will split or merge, or
      * whether the parent pivot is going to be deleted and needs to be swapped.
-     * If so, the parent and the child are locked exclusively, if not already
-     * locked exclusively. This method also rewinds split or merge operations of
-     * the child is not going to split or merge.
+     * If so, the parent and the child must be locked exclusively. If they are
+     * not already locked exclusively, this method returns false and the
+     * descent must be restarted with exclusive locks, because releasing the
+     * shared locks in order to lock exclusively would let a concurrent insert
+     * or delete split, fill or merge the parent, invalidating the decisions
+     * made for the levels above. This method also rewinds split or merge
+     * operations of the child is not going to split or merge.
      * 
      * @param mutation
      *            The mutation state container.
@@ -123,8 +144,9 @@ implements Query<Record> {
      * @param leaveExclusive
      *            The number of levels above and including the parent level to
      *            leave exclusive when rewinding.
+     * @return False if the descent must be restarted with exclusive locks.
      */
-    private void testInnerTier(Mutation<Record, Address> mutation, Decision<Record, Address> subsequent, Decision<Record, Address> swap, Level<Record, Address> parentLevel, Level<Record, Address> childLevel, Tier<Record, Address> parent, int leaveExclusive) {
+    private boolean testInnerTier(Mutation<Record, Address> mutation, Decision<Record, Address> subsequent, Decision<Record, Address> swap, Level<Record, Address> parentLevel, Level<Record, Address> childLevel, Tier<Record, Address> parent, int leaveExclusive) {
         // Test to see if the parent may be split or merged.
         boolean tiers = subsequent.test(mutation, parentLevel, childLevel, parent);
 
@@ -133,14 +155,11 @@ implements Query<Record> {
 
         // If the parent needs to be locked exclusively, make it so.
         if (tiers || keys) {
-            // We need to lock both the parent and child exclusive, so upgrade
-            // the locks and try again if necessary. Otherwise, if this lock is
+            // We need to lock both the parent and child exclusive, so restart
+            // the descent exclusively if necessary. Otherwise, if this lock is
             // for swap only, we can rewind any splits or merges.
             if (!parentLevel.locker.isWrite() || !childLevel.locker.isWrite()) {
-                parentLevel.upgrade(childLevel);
-                parentLevel.operations.clear();
-                childLevel.operations.clear();
-                testInnerTier(mutation, subsequent, swap, parentLevel, childLevel, parent, leaveExclusive);
+                return false;
             } else if (!tiers) {
                 mutation.rewind(leaveExclusive);
             }
@@ -149,6 +168,7 @@ implements Query<Record> {
             // or merges above this level.
             mutation.rewind(leaveExclusive);
         }
+        return true;
     }
 
     /**
@@ -176,15 +196,115 @@ implements Query<Record> {
      */
     private Record generalized(Mutation<Record, Address> mutation, RootDecision<Record, Address> initial, Decision<Record, Address> subsequent, Decision<Record, Address> swap, Decision<Record, Address> penultimate) {
         Stage<Record, Address> stage = structure.getStage();
+        stage.begin();
+
+        Record result = mutate(mutation, initial, subsequent, swap, penultimate);
+        
+        stage.flush(stash, false);
+        stage.end(lockCount);
 
+        return result;
+    }
+
+    /**
+     * Perform the descent and the mutation of the generalized mutation
+     * without beginning, flushing or ending the stage, so that a batch of
+     * mutations can share a single flush of the stage.
+     * 
+     * @param mutation
+     *            An object that maintains the state of this insert or delete.
+     * @param initial
+     *            A decision to split or merge the root.
+     * @param subsequent
+     *            A decision to split, merge or delete an inner tier that is not
+     *            the root tier.
+     * @param swap
+     *            For remove, determine if the object removed is an inner tier
+     *            pivot and needs to be swapped.
+     * @param penultimate
+     *            A decision about the both the inner tier that references
+     *            leaves and the leaf tier itself.
+     * @return The result of the mutation.
+     */
+    private Record mutate(Mutation<Record, Address> mutation, RootDecision<Record, Address> initial, Decision<Record, Address> subsequent, Decision<Record, Address> swap, Decision<Record, Address> penultimate) {
+        // Every inner tier of the path is counted when the leaf changes, so a
+        // b+tree that counts or summarizes its branches descends exclusively.
+        Level<Record, Address> childLevel = structure.isSummarized() ? null : lockPath(mutation, initial, subsequent, swap, penultimate, false);
+        if (childLevel == null) {
+            mutation.clear();
+            childLevel = lockPath(mutation, initial, subsequent, swap, penultimate, true);
+        }
+
+        if (mutation.leafOperation.operate(mutation, childLevel)) {
+            ListIterator<Level<Record, Address>> levels = mutation.levels.listIterator(mutation.levels.size());
+            while (levels.hasPrevious()) {
+                Level<Record, Address> level = levels.previous();
+                ListIterator<Operation<Record, Address>> operations = level.operations.listIterator(level.operations.size());
+                while (operations.hasPrevious()) {
+                    Operation<Record, Address> operation = operations.previous();
+                    operation.operate(mutation);
+                }
+            }
+        }
+
+        ListIterator<Level<Record, Address>> levels = mutation.levels.listIterator(mutation.levels.size());
+        while (levels.hasPrevious()) {
+            Level<Record, Address> level = levels.previous();
+            level.releaseAndClear();
+        }
+        mutation.unpin();
+
+        return mutation.getResult();
+    }
+
+    /**
+     * Descend the b+tree to the leaf of the generalized mutation, locking the
+     * tiers that the mutation will change and recording the operations to
+     * perform on each level, and return the level of the leaf.
+     * <p>
+     * The descent begins with shared locks, locking exclusively only the leaf
+     * and any tiers that will split or merge. If the decision for a tier that
+     * is only share locked is that it will split, merge or swap a pivot, the
+     * locks are released and null is returned, so that the descent can be
+     * restarted with exclusive locks from the root. Every level of an
+     * exclusive descent is locked exclusively, so that an exclusive descent
+     * never returns null.
+     * <p>
+     * If branches are counted or summarized, the levels of the path are not
+     * released as the descent passes tiers that will not split or merge, so
+     * that the leaf operation can count the change to the leaf in every inner
+     * tier of the path while the path is write locked.
+     *
+     * @param mutation
+     *            An object that maintains the state of this insert or delete.
+     * @param initial
+     *            A decision to split or merge the root.
+     * @param subsequent
+     *            A decision to split, merge or delete an inner tier that is not
+     *            the root tier.
+     * @param swap
+     *            For remove, determine if the object removed is an inner tier
+     *            pivot and needs to be swapped.
+     * @param penultimate
+     *            A decision about the both the inner tier that references
+     *            leaves and the leaf tier itself.
+     * @param exclusive
+     *            Whether to lock every level of the descent exclusively.
+     * @return The level of the leaf or null if the descent must be restarted
+     *         exclusively.
+     */
+    private Level<Record, Address> lockPath(Mutation<Record, Address> mutation, RootDecision<Record, Address> initial, Decision<Record, Address> subsequent, Decision<Record, Address> swap, Decision<Record, Address> penultimate, boolean exclusive) {
+        mutation.setExclusive(exclusive);
         mutation.levels.add(new Level<Record, Address>(false));
 
         Tier<Record, Address> parent = getRoot();
-        Level<Record, Address> parentLevel = new Level<Record, Address>(false);
+        Level<Record, Address> parentLevel = new Level<Record, Address>(exclusive);
         parentLevel.lockAndAdd(parent);
+        structure.unpin(parent);
         mutation.levels.add(parentLevel);
+        mutation.descend(parent);
 
-        Level<Record, Address> childLevel = new Level<Record, Address>(false);
+        Level<Record, Address> childLevel = new Level<Record, Address>(exclusive);
         mutation.levels.add(childLevel);
 
         if (initial.test(mutation, parentLevel, parent)) {
@@ -196,57 +316,133 @@ implements Query<Record> {
             }
         }
 
-        for (;;) {
+        for (int depth = 1;; depth++) {
             if (parent.isChildLeaf()) {
-                testInnerTier(mutation, penultimate, swap, parentLevel, childLevel, parent, 1);
+                if (!testInnerTier(mutation, penultimate, swap, parentLevel, childLevel, parent, 1)) {
+                    break;
+                }
+                return childLevel;
+            }
+            if (!testInnerTier(mutation, subsequent, swap, parentLevel, childLevel, parent, 0)) {
                 break;
             }
-            testInnerTier(mutation, subsequent, swap, parentLevel, childLevel, parent, 0);
-            int branch = parent.find(mutation.getComparable());
-            Tier<Record, Address> child = structure.getStorage().load(mutation.getStash(), parent.getChildAddress(branch));
+            int branch = parent.findBranch(mutation.getComparable());
+            Tier<Record, Address> child = mutation.load(parent.getChildAddress(branch));
+            structure.reside(child, depth);
             parent = child;
             parentLevel = childLevel;
             childLevel = new Level<Record, Address>(childLevel.locker.isWrite());
             mutation.levels.add(childLevel);
+            mutation.descend(parent);
             mutation.shift();
         }
 
-        if (mutation.leafOperation.operate(mutation, childLevel)) {
-            ListIterator<Level<Record, Address>> levels = mutation.levels.listIterator(mutation.levels.size());
-            while (levels.hasPrevious()) {
-                Level<Record, Address> level = levels.previous();
-                ListIterator<Operation<Record, Address>> operations = level.operations.listIterator(level.operations.size());
-                while (operations.hasPrevious()) {
-                    Operation<Record, Address> operation = operations.previous();
-                    operation.operate(mutation);
-                }
-            }
-        }
-
-        ListIterator<Level<Record, Address>> levels = mutation.levels.listIterator(mutation.levels.size());
-        while (levels.hasPrevious()) {
-            Level<Record, Address> level = levels.previous();
+        for (Level<Record, Address> level : mutation.levels) {
             level.releaseAndClear();
         }
-        
-        stage.flush(stash, lockCount, false);
-        stage.end(lockCount);
+        mutation.levels.clear();
 
-        return mutation.getResult();
+        return null;
     }
 
     /**
-     * Add the given object to the b+tree.
+     * Add the given object to the b+tree. In B-link mode the object is added
+     * by a B-link insert that write locks only the tiers that it changes.
      * 
      * @param object
      *            The object to add.
      */
     public void add(Record object) {
+        if (structure.isBLink()) {
+            Stage<Record, Address> stage = structure.getStage();
+            stage.begin();
+            new BLinkInsert<Record, Address>(stash, structure, strata.getRootAddress()).insert(object);
+            stage.flush(stash, false);
+            stage.end(lockCount);
+            return;
+        }
         Comparable<? super Record> fields = structure.getComparableFactory().newComparable(stash, object);
         Mutation<Record, Address> mutation = new Mutation<Record,Address>(stash, structure, fields, object, null);
         generalized(mutation, new ShouldSplitRoot<Record, Address>(), new ShouldSplitInner<Record, Address>(), new InnerNever<Record, Address>(), new HowToInertLeaf<Record, Address>());
     }
 
+    /**
+     * Add the objects in the given collection to the b+tree.
+     * <p>
+     * The objects are sorted and inserted in order. The leaf that receives an
+     * object is kept write locked along with the least pivot to the right of
+     * the path to the leaf, the upper bound of the leaf. Subsequent objects
+     * that are less than the upper bound are inserted directly into the leaf
+     * without a descent from the root, for as long as the leaf has a free
+     * slot. The upper bound of a leaf can only increase while the leaf is
+     * locked, since a merge of the leaf requires its lock.
+     * <p>
+     * An object that is greater than or equal to the upper bound or that would
+     * fill the leaf releases the leaf and is inserted by the generalized
+     * mutation, which will split the leaf if necessary. The stage is flushed
+     * once for the entire batch, so a dirty tier is written once no matter how
+     * many objects were inserted into it.
+     * <p>
+     * In B-link mode the upper bound of a leaf is its high key if it has one
+     * and an object that would fill the leaf is inserted by a B-link insert.
+     * <p>
+     * If branches are counted or summarized, every object is inserted by the
+     * generalized mutation, which counts the object in the branches of its
+     * path while the path is write locked.
+     * 
+     * @param objects
+     *            The objects to add.
+     */
+    public void addAll(Collection<? extends Record> objects) {
+        final ComparableFactory<Record> comparableFactory = structure.getComparableFactory();
+        List<Keyed<Record>> sorted = new ArrayList<Keyed<Record>>(objects.size());
+        for (Record object : objects) {
+            sorted.add(new Keyed<Record>(object, comparableFactory.newComparable(stash, object)));
+        }
+        Collections.sort(sorted, new Comparator<Keyed<Record>>() {
+            public int compare(Keyed<Record> left, Keyed<Record> right) {
+                return left.comparable.compareTo(right.object);
+            }
+        });
+
+        Stage<Record, Address> stage = structure.getStage();
+        stage.begin();
+
+        Tier<Record, Address> leaf = null;
+        List<Record> upper = new ArrayList<Record>(1);
+        for (Keyed<Record> keyed : sorted) {
+            if (leaf != null && (leaf.getSize() >= structure.getLeafSize() || (!upper.isEmpty() && keyed.comparable.compareTo(upper.get(0)) >= 0))) {
+                leaf.readWriteLock.writeLock().unlock();
+                leaf = null;
+            }
+            if (leaf == null) {
+                upper.clear();
+                leaf = structure.isSummarized() ? null : descendExclusive(keyed.comparable, upper);
+                if (leaf == null || leaf.getSize() >= structure.getLeafSize()) {
+                    if (leaf != null) {
+                        leaf.readWriteLock.writeLock().unlock();
+                        leaf = null;
+                    }
+                    if (structure.isBLink()) {
+                        new BLinkInsert<Record, Address>(stash, structure, strata.getRootAddress()).insert(keyed.object);
+                    } else {
+                        Mutation<Record, Address> mutation = new Mutation<Record,Address>(stash, structure, keyed.comparable, keyed.object, null);
+                        mutate(mutation, new ShouldSplitRoot<Record, Address>(), new ShouldSplitInner<Record, Address>(), new InnerNever<Record, Address>(), new HowToInertLeaf<Record, Address>());
+                    }
+                    continue;
+                }
+            }
+            leaf.addRecord(leaf.find(keyed.comparable), keyed.object);
+            stage.dirty(stash, leaf);
+        }
+        if (leaf != null) {
+            leaf.readWriteLock.writeLock().unlock();
+        }
+
+        stage.flush(stash, false);
+        stage.end(lockCount);
+    }
+
     /**
      * Build a comparable from the given value object using the comparable
      * factory property that provides the comparables used to order the b+tree.
@@ -258,6 +454,205 @@ implements Query<Record> {
         return structure.getComparableFactory().newComparable(stash, object);
     }
 
+    /**
+     * Descend the b+tree to the leaf that would contain the given comparable,
+     * or if the given comparable is null, to the leftmost or rightmost leaf of
+     * the b+tree. The leaf is returned read locked.
+     * <p>
+     * The inner tiers are first read optimistically, without locking, a few
+     * times over if a writer interferes, before falling back to a descent with
+     * lock coupling, so that readers do not contend for the locks of the inner
+     * tiers near the root unless writers are busy with them.
+     * <p>
+     * In B-link mode the right link of a tier is followed when the comparable
+     * is greater than or equal to the high key of the tier, or when the
+     * descent is to the rightmost leaf and the tier has a high key.
+     * 
+     * @param fields
+     *            The comparable representing the value to find or null to
+     *            descend the leftmost or rightmost branches.
+     * @param rightmost
+     *            If the comparable is null, descend the rightmost branches
+     *            instead of the leftmost branches.
+     * @return The read locked leaf.
+     */
+    Tier<Record, Address> descend(Comparable<? super Record> fields, boolean rightmost) {
+        for (int i = 0; i < OPTIMISTIC_ATTEMPTS; i++) {
+            Tier<Record, Address> leaf = descendOptimistic(fields, rightmost);
+            if (leaf != null) {
+                return leaf;
+            }
+        }
+
+        boolean chase = fields != null || rightmost;
+        Tier<Record, Address> inner = getRoot();
+        inner.readWriteLock.readLock().lock();
+        structure.unpin(inner);
+        for (int depth = 1;; depth++) {
+            if (chase) {
+                inner = Tiers.chase(stash, structure, inner, fields, false, Tiers.READ);
+            }
+            int branch = fields != null ? inner.findBranch(fields) : rightmost ? inner.getSize() - 1 : 0;
+            Tier<Record, Address> child = structure.getStorage().load(stash, inner.getChildAddress(branch));
+            child.readWriteLock.readLock().lock();
+            structure.unpin(child);
+            inner.readWriteLock.readLock().unlock();
+            if (inner.isChildLeaf()) {
+                return chase ? Tiers.chase(stash, structure, child, fields, true, Tiers.READ) : child;
+            }
+            structure.reside(child, depth);
+            inner = child;
+        }
+    }
+
+    /**
+     * Descend the b+tree to the leaf that would contain the given comparable,
+     * or if the given comparable is null, to the leftmost or rightmost leaf,
+     * reading the inner tiers without locking them, and return the leaf read
+     * locked, or return null if a writer interfered with the descent.
+     * <p>
+     * The version of each inner tier is stamped before it is read. The child
+     * is loaded and its version stamped before the version of the parent is
+     * validated, so that when the parent is valid, the child was the child of
+     * the parent when it was stamped, since a tier is only split, merged or
+     * freed while its parent is write locked. The leaf is read locked before
+     * the version of its parent is validated, so the leaf that is returned is
+     * the leaf of the path and cannot be freed while it is held.
+     * <p>
+     * A tier read while a writer changes it may be inconsistent to the point
+     * of raising an exception, which is treated as interference.
+     * <p>
+     * A tier is unpinned as soon as its version is stamped, since a tier pool
+     * write locks a tier to evict it, so that a tier evicted after it was
+     * stamped fails validation. The root is taken from the b+tree, where it is
+     * cached and never evicted, so that the descent does not look it up in
+     * the storage or pin it, and writes nothing to the root.
+     * <p>
+     * In B-link mode the right link of an inner tier is followed by stamping
+     * the version of the tier to the right before validating the version of
+     * the tier, the same as a descent to a child. The high key of a tier is
+     * only cleared while its parent is write locked, so a valid parent sends
+     * the descent to a tier whose high key is intact. The right links of the
+     * leaf are followed with lock coupling.
+     * 
+     * @param fields
+     *            The comparable representing the value to find or null to
+     *            descend the leftmost or rightmost branches.
+     * @param rightmost
+     *            If the comparable is null, descend the rightmost branches
+     *            instead of the leftmost branches.
+     * @return The read locked leaf or null if a writer interfered.
+     */
+    private Tier<Record, Address> descendOptimistic(Comparable<? super Record> fields, boolean rightmost) {
+        boolean chase = structure.isBLink() && (fields != null || rightmost);
+        try {
+            Tier<Record, Address> inner = strata.getRoot(stash);
+            long stamp = inner.tryOptimisticRead();
+            for (int depth = 1; stamp != 0; depth++) {
+                while (chase && Tiers.isRightOf(inner, fields)) {
+                    Tier<Record, Address> next = structure.getStorage().load(stash, inner.getNext());
+                    long nextStamp = next.tryOptimisticRead();
+                    structure.unpin(next);
+                    if (nextStamp == 0 || !inner.validate(stamp)) {
+                        return null;
+                    }
+                    inner = next;
+                    stamp = nextStamp;
+                }
+                int branch = fields != null ? inner.findBranch(fields) : rightmost ? inner.getSize() - 1 : 0;
+                boolean childLeaf = inner.isChildLeaf();
+                Tier<Record, Address> child = structure.getStorage().load(stash, inner.getChildAddress(branch));
+                if (childLeaf) {
+                    child.readWriteLock.readLock().lock();
+                    structure.unpin(child);
+                    if (inner.validate(stamp)) {
+                        return chase ? Tiers.chase(stash, structure, child, fields, true, Tiers.READ) : child;
+                    }
+                    child.readWriteLock.readLock().unlock();
+                    return null;
+                }
+                long childStamp = child.tryOptimisticRead();
+                structure.unpin(child);
+                if (!inner.validate(stamp)) {
+                    return null;
+                }
+                structure.reside(child, depth);
+                inner = child;
+                stamp = childStamp;
+            }
+        } catch (RuntimeException e) {
+            // A writer changed the tier as it was read.
+        }
+        return null;
+    }
+
+    /**
+     * Descend the b+tree with lock coupling to the leaf that would contain the
+     * given comparable and return the leaf write locked. The inner tiers are
+     * read locked during the descent and released. The least pivot to the
+     * right of the path to the leaf, if any, is added to the given list of
+     * upper bounds. In B-link mode the right links are followed and the high
+     * key of a tier on the path is an upper bound as well.
+     * 
+     * @param fields
+     *            The comparable representing the value to insert.
+     * @param upper
+     *            A list to receive the upper bound of the leaf.
+     * @return The write locked leaf.
+     */
+    private Tier<Record, Address> descendExclusive(Comparable<? super Record> fields, List<Record> upper) {
+        Lock previous = new ReentrantLock();
+        previous.lock();
+        Tier<Record, Address> inner = getRoot();
+        
+        for (int depth = 1;; depth++) {
+            inner.readWriteLock.readLock().lock();
+            structure.unpin(inner);
+            previous.unlock();
+            inner = Tiers.chase(stash, structure, inner, fields, false, Tiers.READ);
+            previous = inner.readWriteLock.readLock();
+            if (structure.isBLink()) {
+                bound(inner, upper);
+            }
+            int branch = inner.findBranch(fields);
+            if (branch + 1 < inner.getSize()) {
+                upper.clear();
+                upper.add(inner.getRecord(branch + 1));
+            }
+            if (inner.isChildLeaf()) {
+                Tier<Record, Address> leaf = structure.getStorage().load(stash, inner.getChildAddress(branch));
+                leaf.readWriteLock.writeLock().lock();
+                structure.unpin(leaf);
+                previous.unlock();
+                leaf = Tiers.chase(stash, structure, leaf, fields, true, Tiers.WRITE);
+                if (structure.isBLink()) {
+                    bound(leaf, upper);
+                }
+                return leaf;
+            }
+            inner = structure.getStorage().load(stash, inner.getChildAddress(branch));
+            structure.reside(inner, depth);
+        }
+    }
+
+    /**
+     * Replace the upper bound in the given list with the high key of the
+     * given locked tier if it has one. The high key of a tier on the path is
+     * less than the upper bounds found above it.
+     * 
+     * @param tier
+     *            The locked tier.
+     * @param upper
+     *            A list to receive the upper bound of the leaf.
+     */
+    private void bound(Tier<Record, Address> tier, List<Record> upper) {
+        Record highKey = tier.getHighKey();
+        if (highKey != null) {
+            upper.clear();
+            upper.add(highKey);
+        }
+    }
+
     /**
      * Return a forward cursor that references if the first object value in the
      * b+tree that is less than or equal to the given comparable.
@@ -268,23 +663,398 @@ implements Query<Record> {
      *         b+tree that is less than or equal to the given comparable.
      */
     public Cursor<Record> find(Comparable<? super Record> fields) {
+        Tier<Record, Address> leaf = descend(fields, false);
+        return new CoreCursor<Record, Address>(stash, structure, leaf, leaf.find(fields));
+    }
+
+    /**
+     * Return the first object value in the b+tree that is equal to the given
+     * comparable or null if there is no such object. The leaf is read locked
+     * only while the object is read and is released before this method
+     * returns, so there is no cursor to release.
+     * <p>
+     * The descent reaches the leaf referenced by the greatest pivot that is
+     * less than or equal to the comparable. If the comparable is greater than
+     * every object in that leaf, the linked list of duplicate index values
+     * that may follow the leaf holds only values equal to the last object of
+     * the leaf, so the comparable is not in the b+tree.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return The first object equal to the comparable or null if not found.
+     */
+    public Record get(Comparable<? super Record> comparable) {
+        Tier<Record, Address> leaf = descend(comparable, false);
+        try {
+            int index = leaf.find(comparable);
+            if (index < leaf.getSize()) {
+                Record object = leaf.getRecord(index);
+                if (comparable.compareTo(object) == 0) {
+                    return object;
+                }
+            }
+            return null;
+        } finally {
+            leaf.readWriteLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return true if the b+tree contains an object value equal to the given
+     * comparable. The leaf is released before this method returns.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return True if an object equal to the comparable is found.
+     */
+    public boolean contains(Comparable<? super Record> comparable) {
+        return get(comparable) != null;
+    }
+
+    /**
+     * Return the first object value equal to each of the given comparables,
+     * or null for each comparable that is not found, in the order of the
+     * comparables.
+     * <p>
+     * The comparables are expected in ascending order. The path from the root
+     * to the current leaf is kept, along with the bounds of each tier of the
+     * path and a stamp of the version of each inner tier taken while it was
+     * read locked, but only the current leaf is kept read locked. The inner
+     * tiers are descended with lock coupling and released. A comparable
+     * within the bounds of the current leaf is found in the current leaf.
+     * Otherwise the path is unwound to the lowest tier whose bounds contain
+     * the comparable, that tier is read locked, and the descent resumes from
+     * there if the versions of the tier and of every tier above it are
+     * unchanged, so that the recorded bounds still hold. If a writer has
+     * changed any of them, the descent starts again from the root. Nearby
+     * comparables do not descend from the root, and writers are not held
+     * out of the upper tiers for the length of the batch. A comparable out of
+     * order unwinds further, but is still found.
+     * <p>
+     * In B-link mode a tier of the path is found by following right links and
+     * its high key is its upper bound. The high key of a read locked tier does
+     * not change.
+     * 
+     * @param comparables
+     *            The comparables representing the values to find.
+     * @return The objects found or null for each comparable not found.
+     */
+    public List<Record> getAll(List<? extends Comparable<? super Record>> comparables) {
+        List<Record> found = new ArrayList<Record>(comparables.size());
+        LinkedList<BoundedTier<Record, Address>> path = new LinkedList<BoundedTier<Record, Address>>();
+        BoundedTier<Record, Address> leaf = null;
+        try {
+            for (Comparable<? super Record> comparable : comparables) {
+                if (leaf != null && !leaf.contains(comparable)) {
+                    leaf.tier.readWriteLock.readLock().unlock();
+                    leaf = null;
+                }
+                if (leaf == null) {
+                    BoundedTier<Record, Address> inner = resume(path, comparable);
+                    try {
+                        while (leaf == null) {
+                            int branch = inner.tier.findBranch(comparable);
+                            Record lower = branch == 0 ? inner.lower : inner.tier.getRecord(branch);
+                            Record upper = branch + 1 < inner.tier.getSize() ? inner.tier.getRecord(branch + 1) : inner.upper;
+                            Tier<Record, Address> child = structure.getStorage().load(stash, inner.tier.getChildAddress(branch));
+                            child.readWriteLock.readLock().lock();
+                            structure.unpin(child);
+                            if (inner.tier.isChildLeaf()) {
+                                leaf = bound(child, lower, upper, comparable, true);
+                            } else {
+                                structure.reside(child, path.size());
+                                BoundedTier<Record, Address> next = bound(child, lower, upper, comparable, false);
+                                inner.tier.readWriteLock.readLock().unlock();
+                                inner = next;
+                                path.add(inner);
+                            }
+                        }
+                    } finally {
+                        inner.tier.readWriteLock.readLock().unlock();
+                    }
+                }
+                Record object = null;
+                int index = leaf.tier.find(comparable);
+                if (index < leaf.tier.getSize() && comparable.compareTo(leaf.tier.getRecord(index)) == 0) {
+                    object = leaf.tier.getRecord(index);
+                }
+                found.add(object);
+            }
+        } finally {
+            if (leaf != null) {
+                leaf.tier.readWriteLock.readLock().unlock();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Unwind the given path of a multi-get to the lowest inner tier whose
+     * bounds contain the given comparable and return that tier read locked,
+     * if the versions of the tier and of every tier above it in the path are
+     * unchanged since they were stamped. Otherwise the path is reset to the
+     * read locked root.
+     * 
+     * @param path
+     *            The path from the root of the previous descent.
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return The read locked inner tier to resume the descent from.
+     */
+    private BoundedTier<Record, Address> resume(LinkedList<BoundedTier<Record, Address>> path, Comparable<? super Record> comparable) {
+        while (!path.isEmpty() && !path.getLast().contains(comparable)) {
+            path.removeLast();
+        }
+        if (!path.isEmpty()) {
+            BoundedTier<Record, Address> inner = path.getLast();
+            inner.tier.readWriteLock.readLock().lock();
+            boolean valid = true;
+            for (BoundedTier<Record, Address> ancestor : path) {
+                if (!ancestor.tier.validate(ancestor.stamp)) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                return inner;
+            }
+            inner.tier.readWriteLock.readLock().unlock();
+            path.clear();
+        }
+        Tier<Record, Address> root = getRoot();
+        root.readWriteLock.readLock().lock();
+        structure.unpin(root);
+        BoundedTier<Record, Address> bounded = new BoundedTier<Record, Address>(root, null, null);
+        path.add(bounded);
+        return bounded;
+    }
+
+    /**
+     * Pair the given read locked tier with the given bounds of the branch that
+     * references it. In B-link mode the right links are first followed to the
+     * tier that contains the given comparable, whose lower bound is then the
+     * high key of the tier to its left, and the upper bound of the tier is
+     * its high key if it has one.
+     * 
+     * @param tier
+     *            The read locked tier.
+     * @param lower
+     *            The pivot of the branch or null if unbounded.
+     * @param upper
+     *            The pivot of the subsequent branch or null if unbounded.
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @return The read locked tier that contains the comparable and its bounds.
+     */
+    private BoundedTier<Record, Address> bound(Tier<Record, Address> tier, Record lower, Record upper, Comparable<? super Record> comparable, boolean leaf) {
+        if (structure.isBLink()) {
+            while (Tiers.isRightOf(tier, comparable)) {
+                lower = tier.getHighKey();
+                tier = Tiers.right(stash, structure, tier, leaf, Tiers.READ);
+            }
+            if (tier.getHighKey() != null) {
+                upper = tier.getHighKey();
+            }
+        }
+        return new BoundedTier<Record, Address>(tier, lower, upper);
+    }
+
+    /**
+     * Return the count of object values in the b+tree that are less than the
+     * given comparable, the index of the first object value that is greater
+     * than or equal to the comparable.
+     * <p>
+     * The descent adds the counts of the branches to the left of the path at
+     * each inner tier. At the leaf, the index of the comparable in the leaf is
+     * added, unless the comparable is greater than every object in the leaf,
+     * in which case the linked list of duplicate index values that may follow
+     * the leaf is also less than the comparable, so the count of the branch to
+     * the leaf is added. No leaf other than the leaf on the path is read.
+     * 
+     * @param comparable
+     *            The comparable representing the value to rank.
+     * @return The count of object values less than the comparable.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public long rank(Comparable<? super Record> comparable) {
+        if (!structure.isCounted()) {
+            throw new UnsupportedOperationException();
+        }
+        long rank = 0;
         Lock previous = new ReentrantLock();
         previous.lock();
         Tier<Record, Address> inner = getRoot();
-    
-        for (;;) {
+        for (int depth = 1;; depth++) {
             inner.readWriteLock.readLock().lock();
+            structure.unpin(inner);
             previous.unlock();
             previous = inner.readWriteLock.readLock();
-            int branch = inner.find(fields);
+            int branch = inner.findBranch(comparable);
+            for (int i = 0; i < branch; i++) {
+                rank += inner.getCount(i);
+            }
             if (inner.isChildLeaf()) {
+                long count = inner.getCount(branch);
                 Tier<Record, Address> leaf = structure.getStorage().load(stash, inner.getChildAddress(branch));
                 leaf.readWriteLock.readLock().lock();
+                structure.unpin(leaf);
                 previous.unlock();
-                return new CoreCursor<Record, Address>(stash, structure, leaf, leaf.find(fields));
+                try {
+                    int index = leaf.find(comparable);
+                    return rank + (index == leaf.getSize() ? count : index);
+                } finally {
+                    leaf.readWriteLock.readLock().unlock();
+                }
             }
             inner = structure.getStorage().load(stash, inner.getChildAddress(branch));
+            structure.reside(inner, depth);
+        }
+    }
+
+    /**
+     * Return the object value at the given index in the order of the b+tree,
+     * or null if the index is outside of the b+tree.
+     * <p>
+     * The descent follows the branch whose count contains the index at each
+     * inner tier, subtracting the counts of the branches to its left. At the
+     * leaf, the index may be past the end of the leaf and in the linked list
+     * of duplicate index values that follows the leaf, which is read with lock
+     * coupling.
+     * 
+     * @param index
+     *            The index of the object value.
+     * @return The object value at the index or null if there is no such object.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public Record select(long index) {
+        if (!structure.isCounted()) {
+            throw new UnsupportedOperationException();
+        }
+        if (index < 0) {
+            return null;
+        }
+        Storage<Record, Address> storage = structure.getStorage();
+        Lock previous = new ReentrantLock();
+        previous.lock();
+        Tier<Record, Address> inner = getRoot();
+        for (int depth = 1;; depth++) {
+            inner.readWriteLock.readLock().lock();
+            structure.unpin(inner);
+            previous.unlock();
+            previous = inner.readWriteLock.readLock();
+            int branch = 0;
+            while (branch < inner.getSize() && index >= inner.getCount(branch)) {
+                index -= inner.getCount(branch);
+                branch++;
+            }
+            if (branch == inner.getSize()) {
+                previous.unlock();
+                return null;
+            }
+            if (inner.isChildLeaf()) {
+                Tier<Record, Address> leaf = storage.load(stash, inner.getChildAddress(branch));
+                leaf.readWriteLock.readLock().lock();
+                structure.unpin(leaf);
+                previous.unlock();
+                try {
+                    while (index >= leaf.getSize()) {
+                        if (storage.isNull(leaf.getNext())) {
+                            return null;
+                        }
+                        Tier<Record, Address> next = storage.load(stash, leaf.getNext());
+                        index -= leaf.getSize();
+                        next.readWriteLock.readLock().lock();
+                        structure.unpin(next);
+                        leaf.readWriteLock.readLock().unlock();
+                        leaf = next;
+                    }
+                    return leaf.getRecord((int) index);
+                } finally {
+                    leaf.readWriteLock.readLock().unlock();
+                }
+            }
+            inner = storage.load(stash, inner.getChildAddress(branch));
+            structure.reside(inner, depth);
+        }
+    }
+
+    /**
+     * Return the count of object values in the b+tree that are greater than
+     * or equal to the given from comparable and less than the given to
+     * comparable, the difference of the ranks of the bounds.
+     * 
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The count of object values in the range.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public long count(Comparable<? super Record> from, Comparable<? super Record> to) {
+        return Math.max(0, rank(to) - rank(from));
+    }
+
+    /**
+     * Return the summary of the object values in the b+tree that are greater
+     * than or equal to the given from comparable and less than the given to
+     * comparable, assembled from the summaries of the branches that are
+     * entirely within the range, so that only the leaves at the boundaries of
+     * the range are read.
+     * 
+     * @param <S>
+     *            The type of summary.
+     * @param aggregator
+     *            The aggregator of the schema of the b+tree.
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The summary of the object values in the range or null if there
+     *         are no object values in the range.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not summarize its branches.
+     * @exception IllegalArgumentException
+     *                If the aggregator is not the aggregator of the schema.
+     */
+    @SuppressWarnings("unchecked")
+    public <S> S aggregate(Aggregator<Record, S> aggregator, Comparable<? super Record> from, Comparable<? super Record> to) {
+        if (structure.getAggregator() == null) {
+            throw new UnsupportedOperationException();
         }
+        if (structure.getAggregator() != aggregator) {
+            throw new IllegalArgumentException();
+        }
+        Tier<Record, Address> root = getRoot();
+        try {
+            return (S) new RangeAggregation<Record, Address>(stash, structure, from, to).aggregate(root);
+        } finally {
+            structure.unpin(root);
+        }
+    }
+
+    /**
+     * Return a forward cursor that iterates over the object values in the
+     * b+tree that are between the given lower and upper bounds. The cursor
+     * stops itself at the upper bound and releases its read lock on the
+     * current leaf as soon as the upper bound is passed.
+     * 
+     * @param from
+     *            The comparable representing the lower bound.
+     * @param fromInclusive
+     *            Whether object values equal to the lower bound are included.
+     * @param to
+     *            The comparable representing the upper bound.
+     * @param toInclusive
+     *            Whether object values equal to the upper bound are included.
+     * @return A forward cursor over the object values in the range.
+     */
+    public Cursor<Record> range(Comparable<? super Record> from, boolean fromInclusive, Comparable<? super Record> to, boolean toInclusive) {
+        return RangeCursor.newRangeCursor(find(from), from, fromInclusive, to, toInclusive);
     }
 
     /**
@@ -312,16 +1082,225 @@ implements Query<Record> {
      *         given comparable and deletable according to the given deletable.
      */
     public Record remove(Deletable<Record> deletable, Comparable<? super Record> comparable) {
+        Stage<Record, Address> stage = structure.getStage();
+        beginDelete();
+
+        Record result = mutateRemove(deletable, comparable);
+
+        stage.flush(stash, false);
+        endDelete();
+
+        return result;
+    }
+
+    /**
+     * Lock the b+tree prior to a delete. In B-link mode the insert delete lock
+     * is locked as well, so that deletes are exclusive of inserts and the
+     * generalized mutation never encounters a tier whose split is in progress.
+     */
+    private void beginDelete() {
+        if (structure.isBLink()) {
+            getInsertDeleteLock().lock();
+        }
+        structure.getStage().begin();
+    }
+
+    /**
+     * Unlock the b+tree after a delete, unlocking the insert delete lock
+     * locked by {@link #beginDelete()} in B-link mode.
+     */
+    private void endDelete() {
+        structure.getStage().end(lockCount);
+        if (structure.isBLink()) {
+            getInsertDeleteLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the first object that is equal to the given comparable that is
+     * deletable according to the the given deletable using the generalized
+     * mutation, without beginning, flushing or ending the stage.
+     * <p>
+     * Removing the last object of a leaf that is an only child takes two
+     * descents, the first to learn that the leaf is an only child and the
+     * second to lock the leaf to its left. The b+tree must not change between
+     * the descents, so when the first descent finds an only child in a delete
+     * that is concurrent with other inserts and deletes, the delete is made
+     * exclusive and both descents are repeated.
+     * 
+     * @param deletable
+     *            Used to determine if an object equal to the comparable can be
+     *            deleted.
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return The removed object or null if no object was removed.
+     */
+    private Record mutateRemove(Deletable<Record> deletable, Comparable<? super Record> comparable) {
+        Stage<Record, Address> stage = structure.getStage();
         Mutation<Record, Address> mutation = new Mutation<Record, Address>(stash, structure, comparable, null, deletable);
-        do {
-            mutation.levels.clear();
-            mutation.clear();
-            generalized(mutation, new ShouldFillRoot<Record, Address>(), new ShouldMergeInner<Record, Address>(), new ShouldSwapKey<Record, Address>(), new HowToRemoveLeaf<Record, Address>());
-        } while (mutation.isOnlyChild());
+        boolean exclusive = false;
+        try {
+            for (;;) {
+                mutation.levels.clear();
+                mutation.clear();
+                mutate(mutation, new ShouldFillRoot<Record, Address>(), new ShouldMergeInner<Record, Address>(), new ShouldSwapKey<Record, Address>(), new HowToRemoveLeaf<Record, Address>());
+                if (!mutation.isOnlyChild()) {
+                    break;
+                }
+                if (!exclusive && stage.lockExclusive()) {
+                    exclusive = true;
+                    mutation.setOnlyChild(false);
+                }
+            }
+        } finally {
+            if (exclusive) {
+                stage.unlockExclusive();
+            }
+        }
 
         return mutation.getResult();
     }
 
+    /**
+     * Remove the first object that is equal to each of the given comparables.
+     * <p>
+     * The comparables are expected in ascending order and are applied leaf by
+     * leaf. The leaf that contains a comparable is kept write locked along
+     * with its upper bound and the objects for the subsequent comparables that
+     * are less than the upper bound are removed directly from the leaf. The
+     * object for the last comparable that falls in the leaf is removed by the
+     * generalized mutation, so that the leaf is merged at most once, after all
+     * of the removals from the leaf have been applied, instead of once for
+     * each removal.
+     * <p>
+     * An object that is the first object in its leaf, or that is equal to the
+     * last object in its leaf and may be followed by a linked list of duplicate
+     * index values, is also removed by the generalized mutation, which swaps
+     * the pivot or compacts the linked list. A comparable that is out of order
+     * will also fail to find its object in the locked leaf and will be removed
+     * by the generalized mutation. The stage is flushed once for the entire
+     * batch.
+     * <p>
+     * If branches are counted or summarized, every object is removed by the
+     * generalized mutation, which counts the removal in the branches of its
+     * path while the path is write locked.
+     * 
+     * @param comparables
+     *            The comparables representing the values to remove in
+     *            ascending order.
+     * @return A list of the removed objects.
+     */
+    public List<Record> removeAll(Iterable<? extends Comparable<? super Record>> comparables) {
+        List<Record> removed = new ArrayList<Record>();
+        Deletable<Record> deletable = deleteAny();
+
+        Stage<Record, Address> stage = structure.getStage();
+        beginDelete();
+
+        Tier<Record, Address> leaf = null;
+        List<Record> upper = new ArrayList<Record>(1);
+        Iterator<? extends Comparable<? super Record>> iterator = comparables.iterator();
+        Comparable<? super Record> next = iterator.hasNext() ? iterator.next() : null;
+        while (next != null) {
+            Comparable<? super Record> comparable = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+            if (leaf != null && !upper.isEmpty() && comparable.compareTo(upper.get(0)) >= 0) {
+                leaf.readWriteLock.writeLock().unlock();
+                leaf = null;
+            }
+            if (leaf == null && !structure.isSummarized()) {
+                upper.clear();
+                leaf = descendExclusive(comparable, upper);
+            }
+            boolean last = next == null || (!upper.isEmpty() && next.compareTo(upper.get(0)) >= 0);
+            int index = leaf == null ? 0 : leaf.find(comparable);
+            if (!last && index != 0 && index < leaf.getSize() && comparable.compareTo(leaf.getRecord(leaf.getSize() - 1)) < 0) {
+                Record candidate = leaf.getRecord(index);
+                if (comparable.compareTo(candidate) == 0) {
+                    leaf.clear(index, 1);
+                    stage.dirty(stash, leaf);
+                    removed.add(candidate);
+                }
+            } else {
+                if (leaf != null) {
+                    leaf.readWriteLock.writeLock().unlock();
+                    leaf = null;
+                }
+                Record candidate = mutateRemove(deletable, comparable);
+                if (candidate != null) {
+                    removed.add(candidate);
+                }
+            }
+        }
+        if (leaf != null) {
+            leaf.readWriteLock.writeLock().unlock();
+        }
+
+        stage.flush(stash, false);
+        endDelete();
+
+        return removed;
+    }
+
+    /**
+     * Remove the objects that are greater than or equal to the given from
+     * comparable and less than the given to comparable.
+     * <p>
+     * The insert delete lock is held for the duration of the removal. The
+     * subtrees that are entirely within the range are removed from their inner
+     * tiers and freed without visiting their objects. The objects in the range
+     * that remain in the leaves at the boundaries of the range are then removed
+     * one by one by the generalized mutation, which merges the boundary
+     * leaves as necessary.
+     * 
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The count of objects removed.
+     */
+    public int removeRange(Comparable<? super Record> from, Comparable<? super Record> to) {
+        Lock lock = getInsertDeleteLock();
+        lock.lock();
+        try {
+            Stage<Record, Address> stage = structure.getStage();
+            stage.begin();
+
+            Tier<Record, Address> root = getRoot();
+            int count = new RangeRemoval<Record, Address>(stash, structure, from, to).remove(root);
+            structure.unpin(root);
+
+            Deletable<Record> deletable = deleteAny();
+            for (;;) {
+                // The cursor can begin in a linked list of duplicate index
+                // values that is less than the start of the range.
+                Cursor<Record> cursor = find(from);
+                Record object = null;
+                while (cursor.hasNext()) {
+                    object = cursor.next();
+                    if (from.compareTo(object) <= 0) {
+                        break;
+                    }
+                    object = null;
+                }
+                cursor.release();
+                if (object == null || to.compareTo(object) <= 0) {
+                    break;
+                }
+                if (mutateRemove(deletable, comparable(object)) != null) {
+                    count++;
+                }
+            }
+
+            stage.flush(stash, false);
+            stage.end(lockCount);
+
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Return a forward cursor that references if the first object value in the
      * b+tree that is less than or equal to the given comparable.
@@ -341,28 +1320,269 @@ implements Query<Record> {
      * @return A cursor that references the first object in the b-tree.
      */
     public Cursor<Record> first() {
-        return null;
+        return new CoreCursor<Record, Address>(stash, structure, descend(null, false), 0);
     }
 
     /**
-     * Flush any dirty tiers held by in memory and guarded by the insert and
-     * delete lock.
+     * Return the last object in the b-tree or null if the b-tree is empty. The
+     * descent follows the rightmost branches to the rightmost leaf referenced
+     * by an inner tier and then follows the leaf links to the end of any
+     * linked list of leaves of duplicate values.
+     * 
+     * @return The last object in the b-tree or null if the b-tree is empty.
+     */
+    public Record last() {
+        Tier<Record, Address> leaf = getLastLeaf();
+        try {
+            return leaf.getSize() == 0 ? null : leaf.getRecord(leaf.getSize() - 1);
+        } finally {
+            leaf.readWriteLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the last leaf of the b-tree read locked. The descent follows the
+     * rightmost branches to the rightmost leaf referenced by an inner tier and
+     * then follows the leaf links to the end of any linked list of leaves of
+     * duplicate values.
+     * 
+     * @return The read locked last leaf of the b-tree.
+     */
+    private Tier<Record, Address> getLastLeaf() {
+        Storage<Record, Address> storage = structure.getStorage();
+        Tier<Record, Address> leaf = descend(null, true);
+        while (!storage.isNull(leaf.getNext())) {
+            Tier<Record, Address> next = storage.load(stash, leaf.getNext());
+            next.readWriteLock.readLock().lock();
+            structure.unpin(next);
+            leaf.readWriteLock.readLock().unlock();
+            leaf = next;
+        }
+        return leaf;
+    }
+
+    /**
+     * Return a reverse cursor that references the last object in the b-tree.
+     * 
+     * @return A reverse cursor that references the last object in the b-tree.
+     * @exception UnsupportedOperationException
+     *                If the b-tree does not link leaves to their previous
+     *                leaves.
+     */
+    public Cursor<Record> lastCursor() {
+        if (!structure.isReverseLinked()) {
+            throw new UnsupportedOperationException();
+        }
+        Tier<Record, Address> leaf = getLastLeaf();
+        return new ReverseCursor<Record, Address>(stash, this, structure, leaf, leaf.getSize() - 1, null);
+    }
+
+    /**
+     * Return a reverse cursor that references the last object value in the
+     * b+tree that is less than or equal to the given comparable.
+     * 
+     * @param fields
+     *            The comparable representing the value to find.
+     * @return A reverse cursor that references the last object value in the
+     *         b+tree that is less than or equal to the given comparable.
+     * @exception UnsupportedOperationException
+     *                If the b-tree does not link leaves to their previous
+     *                leaves.
+     */
+    public Cursor<Record> findReverse(Comparable<? super Record> fields) {
+        if (!structure.isReverseLinked()) {
+            throw new UnsupportedOperationException();
+        }
+        return new ReverseCursor<Record, Address>(stash, this, structure, fields);
+    }
+
+    /**
+     * Flush any dirty tiers held in memory, including the dirty tiers of
+     * inserts and deletes by other threads, waiting for any flush in progress
+     * in another thread or in the background, so that every tier dirtied
+     * before the flush is written when it returns.
+     * 
+     * @exception StrataException
+     *                If a background write of dirty tiers failed.
      */
     public void flush() {
-        structure.getStage().flush(stash, lockCount, true);
+        Stage<Record, Address> stage = structure.getStage();
+        stage.begin();
+        try {
+            stage.flush(stash, true);
+        } finally {
+            stage.end(lockCount);
+        }
+    }
+
+    /**
+     * Get the sum of the estimated sizes in bytes of the dirty tiers held in
+     * memory and not yet written, including the dirty tiers of inserts and
+     * deletes by other threads.
+     * 
+     * @return The count of bytes of dirty tiers.
+     */
+    public long getDirtyByteCount() {
+        return structure.getStage().getDirtyByteCount();
     }
 
     /**
      * Destroy the b+tree by deallocating all of its pages from the persistent
      * storage including the root page.
+     * <p>
+     * The subtrees of the root are freed in parallel by the shared fork join
+     * pool and the freed tiers are written through the stage in a single
+     * flush. Inserts, deletes and new reads are excluded while the b+tree is
+     * destroyed, but any cursors open on the b+tree must be released before
+     * it is destroyed.
      */
     public void destroy() {
+        Lock lock = getInsertDeleteLock();
+        lock.lock();
+        try {
+            Stage<Record, Address> stage = structure.getStage();
+            stage.begin();
+            // Write the dirty tiers before locking the root, so that a
+            // background write does not wait on the root while we wait on it.
+            stage.flush(stash, true);
+            Tier<Record, Address> root = getRoot();
+            root.readWriteLock.writeLock().lock();
+            structure.unpin(root);
+            try {
+                Workers.POOL.invoke(new FreeSubtree<Record, Address>(stash, structure, root, structure.getStorage().getNull()));
+                stage.flush(stash, true);
+            } finally {
+                root.readWriteLock.writeLock().unlock();
+            }
+            stage.end(lockCount);
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
      * Determine if the B+tree has the correct structure.
+     * 
+     * @return True if the verification of the b+tree finds no faults.
      */
     public boolean copacetic() {
-        return true;
+        return verify().isEmpty();
+    }
+
+    /**
+     * Verify the structure of the b+tree and return the faults found. The
+     * subtrees of the root are verified in parallel by the shared fork join
+     * pool. Inserts and deletes are excluded while the b+tree is verified.
+     * 
+     * @return The list of faults found in the b+tree.
+     */
+    public List<Fault> verify() {
+        Lock lock = getInsertDeleteLock();
+        lock.lock();
+        try {
+            Tier<Record, Address> root = getRoot();
+            int leafDepth = 0;
+            Tier<Record, Address> inner = root;
+            while (!inner.isChildLeaf() && inner.getSize() != 0) {
+                Tier<Record, Address> child = structure.getStorage().load(stash, inner.getChildAddress(0));
+                if (inner != root) {
+                    structure.unpin(inner);
+                }
+                inner = child;
+                leafDepth++;
+            }
+            if (inner != root) {
+                structure.unpin(inner);
+            }
+            try {
+                return Workers.POOL.invoke(new VerifySubtree<Record, Address>(stash, structure, root, null, null, 0, leafDepth, structure.getStorage().getNull()));
+            } finally {
+                structure.unpin(root);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A tier on the path of a multi-get, paired with the bounds of the branch
+     * that references it and a stamp of its version taken while it was read
+     * locked.
+     * 
+     * @param <Record>
+     *            The value type of the b+tree objects.
+     * @param <Address>
+     *            The address type used to identify an inner or leaf tier.
+     */
+    private final static class BoundedTier<Record, Address> {
+        /** The tier. */
+        public final Tier<Record, Address> tier;
+
+        /** The pivot of the branch or null if unbounded. */
+        public final Record lower;
+
+        /** The pivot of the subsequent branch or null if unbounded. */
+        public final Record upper;
+
+        /** A stamp of the version of the tier or zero. */
+        public final long stamp;
+
+        /**
+         * Create a tier paired with its bounds. The tier must be read locked,
+         * so that the stamp of its version is that of the tier that was read.
+         * 
+         * @param tier
+         *            The read locked tier.
+         * @param lower
+         *            The pivot of the branch or null if unbounded.
+         * @param upper
+         *            The pivot of the subsequent branch or null if unbounded.
+         */
+        public BoundedTier(Tier<Record, Address> tier, Record lower, Record upper) {
+            this.tier = tier;
+            this.lower = lower;
+            this.upper = upper;
+            this.stamp = tier.tryOptimisticRead();
+        }
+
+        /**
+         * Return true if a descent for the given comparable would pass
+         * through this tier.
+         * 
+         * @param comparable
+         *            The comparable representing the value to find.
+         * @return True if the comparable is within the bounds of the tier.
+         */
+        public boolean contains(Comparable<? super Record> comparable) {
+            return (lower == null || comparable.compareTo(lower) >= 0) && (upper == null || comparable.compareTo(upper) < 0);
+        }
+    }
+
+    /**
+     * An object paired with the comparable built from it, so that a batch of
+     * objects can be sorted building each comparable only once.
+     * 
+     * @param <Record>
+     *            The value type of the b+tree objects.
+     */
+    private final static class Keyed<Record> {
+        /** The object. */
+        public final Record object;
+        
+        /** The comparable built from the object. */
+        public final Comparable<? super Record> comparable;
+
+        /**
+         * Create an object paired with its comparable.
+         * 
+         * @param object
+         *            The object.
+         * @param comparable
+         *            The comparable built from the object.
+         */
+        public Keyed(Record object, Comparable<? super Record> comparable) {
+            this.object = object;
+            this.comparable = comparable;
+        }
     }
 }
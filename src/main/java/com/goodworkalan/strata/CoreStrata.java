@@ -22,6 +22,9 @@ implements Strata<T> {
     /** The collection of the core services of the b+tree. */
     private final Structure<T, A> structure;
 
+    /** The root inner tier once it has been loaded or null. */
+    private volatile Tier<T, A> root;
+
     /**
      * Create a new b+tree implementation with the given root address and
      * bouquet of services.
@@ -45,6 +48,34 @@ implements Strata<T> {
         return rootAddress;
     }
 
+    /**
+     * Get the root inner tier, loading it on first use and keeping it
+     * resident if the schema keeps levels resident. The root splits and
+     * fills in place, so the tier at the root address never changes, and the
+     * root is cached with the pin of the load that returned it, so that a
+     * tier pool never evicts it. The root is returned without a pin for the
+     * caller, so that an optimistic descent reads it without writing to it,
+     * and validates what it reads by the version stamp of the root.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @return The root inner tier.
+     */
+    Tier<T, A> getRoot(Stash stash) {
+        Tier<T, A> root = this.root;
+        if (root == null) {
+            synchronized (this) {
+                root = this.root;
+                if (root == null) {
+                    root = structure.getStorage().load(stash, rootAddress);
+                    structure.reside(root, 0);
+                    this.root = root;
+                }
+            }
+        }
+        return root;
+    }
+
     /**
      * Get the address of the root inner tier.
      * 
@@ -0,0 +1,51 @@
+package com.goodworkalan.strata;
+
+/**
+ * A strategy for choosing the tier to evict from a tier pool. The tier pool
+ * notifies the eviction strategy when a tier is admitted to the pool, when a
+ * tier in the pool is accessed and when a tier leaves the pool. The eviction
+ * strategy is guarded by the monitor of the tier pool.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+interface Eviction<T, A> {
+    /**
+     * Notify the strategy that the given tier has been admitted to the pool.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void admit(Tier<T, A> tier);
+
+    /**
+     * Notify the strategy that the given tier has been accessed.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void access(Tier<T, A> tier);
+
+    /**
+     * Notify the strategy that the given tier has left the pool.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void remove(Tier<T, A> tier);
+
+    /**
+     * Choose a tier to evict. The tier is not removed from the strategy, the
+     * pool will call {@link #remove(Tier) remove} if it evicts the tier, or
+     * {@link #access(Tier) access} if the tier is in use, so that the strategy
+     * offers another tier next. A strategy may skip the tiers that are pinned,
+     * but the pool checks again in any case.
+     * 
+     * @return A tier to evict or null if there is no tier to offer.
+     */
+    public Tier<T, A> victim();
+}
@@ -0,0 +1,33 @@
+package com.goodworkalan.strata;
+
+/**
+ * The eviction policies of a tier pool.
+ * 
+ * @author Alan Gutierrez
+ */
+public enum EvictionPolicy {
+    /** Evict the least recently used tier. */
+    LRU {
+        <T, A> Eviction<T, A> newEviction() {
+            return new LruEviction<T, A>();
+        }
+    },
+
+    /** Evict a tier that has not been used recently according to a clock. */
+    CLOCK {
+        <T, A> Eviction<T, A> newEviction() {
+            return new ClockEviction<T, A>();
+        }
+    };
+
+    /**
+     * Create a new eviction strategy for this policy.
+     * 
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @return A new eviction strategy.
+     */
+    abstract <T, A> Eviction<T, A> newEviction();
+}
@@ -0,0 +1,71 @@
+package com.goodworkalan.strata;
+
+/**
+ * A structural fault found by the verification of a b+tree, the type of the
+ * fault and the address of the tier in which it was found.
+ *
+ * @author Alan Gutierrez
+ */
+public final class Fault {
+    /** The type of fault. */
+    private final FaultType type;
+
+    /** The address of the tier in which the fault was found. */
+    private final Object address;
+
+    /** A description of the fault. */
+    private final String message;
+
+    /**
+     * Create a fault.
+     *
+     * @param type
+     *            The type of fault.
+     * @param address
+     *            The address of the tier in which the fault was found.
+     * @param message
+     *            A description of the fault.
+     */
+    public Fault(FaultType type, Object address, String message) {
+        this.type = type;
+        this.address = address;
+        this.message = message;
+    }
+
+    /**
+     * Get the type of fault.
+     *
+     * @return The type of fault.
+     */
+    public FaultType getType() {
+        return type;
+    }
+
+    /**
+     * Get the address of the tier in which the fault was found.
+     *
+     * @return The address of the tier.
+     */
+    public Object getAddress() {
+        return address;
+    }
+
+    /**
+     * Get a description of the fault.
+     *
+     * @return A description of the fault.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Return the type, address and description of the fault.
+     *
+     * @return A string representation of the fault.
+     */
+    @Override
+    public String toString() {
+        return type + " " + address + ": " + message;
+    }
+}
@@ -0,0 +1,32 @@
+package com.goodworkalan.strata;
+
+/**
+ * The types of structural faults reported by the verification of a b+tree.
+ *
+ * @author Alan Gutierrez
+ */
+public enum FaultType {
+    /** A tier has no records or a leaf that is not the only leaf is empty. */
+    EMPTY,
+
+    /** A tier holds more records than its capacity. */
+    CAPACITY,
+
+    /** The records or pivots of a tier are out of order. */
+    ORDER,
+
+    /**
+     * A pivot of an inner tier does not match the first record of its child
+     * or a record lies outside of the range of the pivots of its branch.
+     */
+    PIVOT,
+
+    /**
+     * The next or previous address of a leaf does not reference its sibling
+     * or a tier split in B-link mode has no branch to its new sibling.
+     */
+    LINK,
+
+    /** The leaves of the b+tree are not all at the same depth. */
+    DEPTH
+}
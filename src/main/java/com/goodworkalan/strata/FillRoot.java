@@ -34,24 +34,34 @@ implements Operation<Record, Address> {
      *            The mutation state container.
      */
     public void operate(Mutation<Record, Address> mutation) {
-        // FIXME Size is off.
-        if (root.getSize() != 0) {
-            throw new IllegalStateException();
+        // The merge of the two children or the deletion of a child with an
+        // only child has already removed a branch. If a child with an only
+        // child was not deleted, there is nothing to fill.
+        if (root.getSize() != 1) {
+            return;
         }
 
         Structure<Record, Address> structure = mutation.getStructure();
 
-        Tier<Record, Address> child = structure.getStorage().load(mutation.getStash(), root.getChildAddress(0));
-        root.clear(0, 1);
-        for (int i = 0, stop = child.getSize(); i < stop; i++) {
-            root.addBranch(root.getSize(), child.getRecord(i), child.getChildAddress(i));
-        }
-        child.clear(0, child.getSize());
+        // The single child may itself have a single child, so fill the root
+        // until it references leaves or has more than one child.
+        Stage<Record, Address> stage = structure.getStage();
+        do {
+            Tier<Record, Address> child = mutation.load(root.getChildAddress(0));
+            root.clear(0, 1);
+            for (int i = 0, stop = child.getSize(); i < stop; i++) {
+                root.addBranch(root.getSize(), child.getRecord(i), child.getChildAddress(i));
+                structure.copySummary(child, i, root, root.getSize() - 1);
+            }
+            child.clear(0, child.getSize());
 
-        root.setChildLeaf(child.isChildLeaf());
+            root.setChildLeaf(child.isChildLeaf());
 
-        Stage<Record, Address> stage = structure.getStage();
-        stage.free(mutation.getStash(), child);
+            // Every tier under the root has moved up a level.
+            structure.shift(root, -1);
+
+            stage.free(mutation.getStash(), child);
+        } while (!root.isChildLeaf() && root.getSize() == 1);
         stage.dirty(mutation.getStash(), root);
     }
 
@@ -0,0 +1,36 @@
+package com.goodworkalan.strata;
+
+/**
+ * A record serializer for records that always encode to the same number of
+ * bytes, such as numbers or fixed length keys. Subclasses implement reading
+ * and writing and give the width of the encoding to the constructor.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ */
+public abstract class FixedRecordSerializer<T>
+implements RecordSerializer<T> {
+    /** The width of an encoded record. */
+    private final int width;
+
+    /**
+     * Create a fixed width record serializer.
+     * 
+     * @param width
+     *            The width of an encoded record.
+     */
+    protected FixedRecordSerializer(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Get the width of an encoded record.
+     * 
+     * @return The width of a record slot in bytes.
+     */
+    public int getWidth() {
+        return width;
+    }
+}
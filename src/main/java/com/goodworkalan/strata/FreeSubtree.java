@@ -0,0 +1,126 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Frees every tier of a subtree of a b+tree, forking a task for each child of
+ * an inner tier whose children are inner tiers, so that the subtrees are
+ * walked in parallel. The tiers of an inner tier whose children are leaves
+ * are freed by the task of that inner tier.
+ * <p>
+ * A leaf may be followed by a linked list of duplicate index values that is
+ * not referenced by an inner tier. The leaves of a linked list are found by
+ * following the next leaf of the referenced leaf until the next referenced
+ * leaf is reached, so each task is given the address of the leaf that follows
+ * its subtree.
+ * <p>
+ * The tiers of a task are collected and given to the stage in a single batch,
+ * so that the monitor of the stage is not contended by every free.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class FreeSubtree<T, A>
+extends RecursiveAction {
+    /** The serial version id. */
+    private static final long serialVersionUID = 1L;
+
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<T, A> structure;
+
+    /** The inner tier at the root of the subtree. */
+    private final Tier<T, A> inner;
+
+    /** The address of the first leaf after the subtree. */
+    private final A following;
+
+    /**
+     * Create a task that frees the subtree of the given inner tier.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param inner
+     *            The inner tier at the root of the subtree.
+     * @param following
+     *            The address of the first leaf after the subtree.
+     */
+    public FreeSubtree(Stash stash, Structure<T, A> structure, Tier<T, A> inner, A following) {
+        this.stash = stash;
+        this.structure = structure;
+        this.inner = inner;
+        this.following = following;
+    }
+
+    /**
+     * Get the address of the leftmost leaf of the subtree of the child at the
+     * given index of the inner tier, or the address of the leaf that follows
+     * the subtree of the inner tier if the index is past the last child.
+     *
+     * @param index
+     *            The index of the child.
+     * @return The address of the leftmost leaf of the child.
+     */
+    private A getLeftmost(int index) {
+        if (index == inner.getSize()) {
+            return following;
+        }
+        A address = inner.getChildAddress(index);
+        boolean leaf = inner.isChildLeaf();
+        while (!leaf) {
+            Tier<T, A> tier = structure.getStorage().load(stash, address);
+            address = tier.getChildAddress(0);
+            leaf = tier.isChildLeaf();
+            structure.unpin(tier);
+        }
+        return address;
+    }
+
+    /**
+     * Free the inner tier, fork a task to free the subtree of each child inner
+     * tier or free each child leaf and the linked lists that follow them.
+     */
+    @Override
+    protected void compute() {
+        Storage<T, A> storage = structure.getStorage();
+        List<Tier<T, A>> tiers = new ArrayList<Tier<T, A>>();
+        tiers.add(inner);
+        if (inner.isChildLeaf()) {
+            for (int i = 0; i < inner.getSize(); i++) {
+                A stop = getLeftmost(i + 1);
+                A address = inner.getChildAddress(i);
+                while (!storage.isNull(address) && !address.equals(stop)) {
+                    Tier<T, A> leaf = storage.load(stash, address);
+                    tiers.add(leaf);
+                    address = leaf.getNext();
+                }
+            }
+        } else {
+            List<FreeSubtree<T, A>> tasks = new ArrayList<FreeSubtree<T, A>>();
+            for (int i = 0; i < inner.getSize(); i++) {
+                Tier<T, A> child = storage.load(stash, inner.getChildAddress(i));
+                tasks.add(new FreeSubtree<T, A>(stash, structure, child, getLeftmost(i + 1)));
+            }
+            invokeAll(tasks);
+            for (FreeSubtree<T, A> task : tasks) {
+                structure.unpin(task.inner);
+            }
+        }
+        structure.getStage().free(stash, tiers);
+        for (int i = 1; i < tiers.size(); i++) {
+            structure.unpin(tiers.get(i));
+        }
+    }
+}
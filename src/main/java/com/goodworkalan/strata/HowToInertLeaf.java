@@ -43,8 +43,8 @@ implements Decision<T, A> {
         boolean split = true;
 
         // Find the branch that navigates to the leaf child.
-        int branch = parent.find(mutation.getComparable());
-        Tier<T, A> leaf = structure.getStorage().load(mutation.getStash(), parent.getChildAddress(branch));
+        int branch = parent.findBranch(mutation.getComparable());
+        Tier<T, A> leaf = mutation.load(parent.getChildAddress(branch));
 
         // Lock the child level exclusively.
         childLevel.locker = new WriteLockExtractor();
@@ -9,50 +9,73 @@ implements Decision<T, A> {
     // TODO Document.
     public boolean test(Mutation<T, A> mutation, Level<T, A> parentLevel, Level<T, A> childLevel, Tier<T, A> parent) {
         Structure<T, A> structure = mutation.getStructure();
-        Storage<T, A> pool = structure.getStorage();
         
         childLevel.locker = new WriteLockExtractor();
-        int branch = parent.find(mutation.getComparable());
+        int branch = parent.findBranch(mutation.getComparable());
         int index = parent.getIndexOfChildAddress(parent.getChildAddress(branch));
         Tier<T, A> previous = null;
+        Tier<T, A> tail = null;
         Tier<T, A> leaf = null;
         List<Tier<T, A>> listToMerge = new ArrayList<Tier<T, A>>();
         if (index != 0) {
-            previous = pool.load(mutation.getStash(), parent.getChildAddress(index - 1));
+            previous = mutation.load(parent.getChildAddress(index - 1));
             childLevel.lockAndAdd(previous);
-            leaf = pool.load(mutation.getStash(), parent.getChildAddress(branch));
+            // The previous leaf may be followed by a linked list of duplicate
+            // index values, lock the linked list in order to find its last leaf.
+            A address = parent.getChildAddress(branch);
+            tail = previous;
+            while (!address.equals(tail.getNext())) {
+                tail = mutation.load(tail.getNext());
+                childLevel.lockAndAdd(tail);
+            }
+            leaf = mutation.load(address);
             childLevel.lockAndAdd(leaf);
             int capacity = previous.getSize() + leaf.getSize();
-            if (capacity <= structure.getLeafSize() + 1) {
+            if (capacity <= structure.getLeafSize() + 1 && tail == previous) {
                 listToMerge.add(previous);
                 listToMerge.add(leaf);
-            } else {
+            } else if (tail == previous) {
                 childLevel.unlockAndRemove(previous);
             }
         }
 
         if (leaf == null) {
-            leaf = pool.load(mutation.getStash(), parent.getChildAddress(branch));
+            leaf = mutation.load(parent.getChildAddress(branch));
             childLevel.lockAndAdd(leaf);
         }
 
         // TODO Do not need the parent size test, just need deleting.
         if (leaf.getSize() == 1 && parent.getSize() == 1 && mutation.isDeleting()) {
+            // Descend again to find and lock the leaf to the left of the only
+            // child. If there is no leaf to the left on the second descent, the
+            // only child is the leftmost leaf of the b+tree.
             Tier<T, A> left = mutation.getLeftLeaf();
-            if (left == null) {
+            if (left == null && !mutation.isOnlyChild()) {
                 mutation.setOnlyChild(true);
                 mutation.leafOperation = new FailedLeafOperation<T, A>();
                 return false;
             }
+            mutation.setOnlyChild(false);
 
             parentLevel.operations.add(new RemoveLeaf<T, A>(parent, leaf, left));
             mutation.leafOperation = new RemoveObject<T, A>(leaf);
             return true;
+        } else if (tail != previous && leaf.getSize() == 1) {
+            // The leaf cannot merge with a previous leaf that is followed by a
+            // linked list of duplicate index values, so rather than leave an
+            // empty leaf, remove it and link the list to the next leaf.
+            if (mutation.isDeleting()) {
+                mutation.rewind(2);
+                mutation.setDeleting(false);
+            }
+            parentLevel.operations.add(new RemoveLeaf<T, A>(parent, leaf, tail));
+            mutation.leafOperation = new RemoveObject<T, A>(leaf);
+            return true;
         } else if (listToMerge.isEmpty() && index != parent.getSize() - 1) {
-            Tier<T, A> next = pool.load(mutation.getStash(), parent.getChildAddress(index + 1));
+            Tier<T, A> next = mutation.load(parent.getChildAddress(index + 1));
             childLevel.lockAndAdd(next);
             int capacity = next.getSize() + leaf.getSize();
-            if (capacity <= structure.getLeafSize() + 1) {
+            if (capacity <= structure.getLeafSize() + 1 && next.getAddress().equals(leaf.getNext())) {
                 listToMerge.add(leaf);
                 listToMerge.add(next);
             } else {
@@ -46,6 +46,8 @@ implements LeafOperation<T, A> {
      */
     public boolean operate(Mutation<T, A> mutation, Level<T, A> leafLevel) {
         append(mutation, leaf, leafLevel);
+        // The object is the last record of the branch to the leaf.
+        mutation.tally(1, true);
         return true;
     }
 
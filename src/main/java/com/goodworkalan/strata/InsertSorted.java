@@ -51,8 +51,8 @@ implements LeafOperation<T, A> {
         Structure<T, A> structure = mutation.getStructure();
 
         // Find the branch that navigates to the leaf child.
-        int branch = inner.find(mutation.getComparable());
-        Tier<T, A> leaf = structure.getStorage().load(mutation.getStash(), inner.getChildAddress(branch));
+        int branch = inner.findBranch(mutation.getComparable());
+        Tier<T, A> leaf = mutation.load(inner.getChildAddress(branch));
 
         int i = 0, stop = leaf.getSize();
         // Insert the object value sorted.
@@ -72,6 +72,9 @@ implements LeafOperation<T, A> {
         // Stage the dirty leaf for write.
         structure.getStage().dirty(mutation.getStash(), leaf);
 
+        // Count and summarize the object in the branches of the path.
+        mutation.tally(1, false);
+
         // Success.
         return true;
     }
@@ -3,7 +3,7 @@ package com.goodworkalan.strata;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A soft reference to an object that is stored as a value in a map that has the
@@ -25,9 +25,11 @@ extends SoftReference<K> implements Unmappable {
     private final A key;
     
     /** The map where the soft reference is stored. */
-    private final Map<A, ?> map;
+    private final ConcurrentMap<A, ?> map;
 
     /**
+     * Create a soft reference to the given object that is stored in the given
+     * map with the given key.
      * 
      * @param key
      *            The key used to map the soft reference.
@@ -39,7 +41,7 @@ extends SoftReference<K> implements Unmappable {
      *            The reference queue used to track when the object is no longer
      *            hard referenced.
      */
-    public KeyedReference(A key, K object, Map<A, Reference<K>> map, ReferenceQueue<K> queue) {
+    public KeyedReference(A key, K object, ConcurrentMap<A, Reference<K>> map, ReferenceQueue<? super K> queue) {
         super(object, queue);
         this.key = key;
         this.map = map;
@@ -47,9 +49,11 @@ extends SoftReference<K> implements Unmappable {
 
     /**
      * Remove the keyed reference value from the by removing the value in the
-     * map property keyed by the key property.
+     * map property keyed by the key property. The value is removed only if it
+     * is still this keyed reference, so that a reference that replaced this
+     * reference is not removed.
      */
     public void unmap() {
-        map.remove(key);
+        map.remove(key, this);
     }
 }
\ No newline at end of file
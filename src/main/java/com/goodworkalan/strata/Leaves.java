@@ -27,7 +27,7 @@ public class Leaves {
     public static <T, A> Tier<T, A> getNextAndLock(Mutation<T, A> mutation, Tier<T, A> leaf, Level<T, A> leafLevel) {
         Structure<T, A> structure = mutation.getStructure();
         if (!structure.getStorage().isNull(leaf.getNext())) {
-            Tier<T, A> next = structure.getStorage().load(mutation.getStash(), leaf.getNext());
+            Tier<T, A> next = mutation.load(leaf.getNext());
             leafLevel.lockAndAdd(next);
             return next;
         }
@@ -35,7 +35,41 @@ public class Leaves {
     }
 
     /**
-     * Link the given next leaf after the given leaf.
+     * Set the previous leaf link of the leaf at the given address to the given
+     * previous address, if the address is not null and the b-tree links leaves
+     * to their previous leaves. The leaf is locked exclusively and added to the
+     * locked tiers of the leaf level of the mutation if it is not already
+     * locked by the mutation. Leaves are always locked from left to right, so
+     * locking the leaf to the right does not deadlock.
+     * 
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param mutation
+     *            The mutation state container.
+     * @param address
+     *            The address of the leaf to update or null.
+     * @param previous
+     *            The address of the previous leaf.
+     */
+    public static <T, A> void setPrevious(Mutation<T, A> mutation, A address, A previous) {
+        Structure<T, A> structure = mutation.getStructure();
+        if (structure.isReverseLinked() && !structure.getStorage().isNull(address)) {
+            Tier<T, A> leaf = mutation.load(address);
+            Level<T, A> leafLevel = mutation.levels.getLast();
+            if (!leafLevel.lockedTiers.containsKey(address)) {
+                leafLevel.lockAndAdd(leaf);
+            }
+            leaf.setPrevious(previous);
+            structure.getStage().dirty(mutation.getStash(), leaf);
+        }
+    }
+
+    /**
+     * Link the given next leaf after the given leaf. If the b-tree links
+     * leaves to their previous leaves, the previous leaf links of the next
+     * leaf and the leaf that follows it are updated as well.
      * 
      * @param <T>
      *            The value type of the b+tree objects.
@@ -53,6 +87,10 @@ public class Leaves {
         Stage<T, A> writer = structure.getStage();
         writer.dirty(mutation.getStash(), leaf);
         writer.dirty(mutation.getStash(), nextLeaf);
+        if (structure.isReverseLinked()) {
+            nextLeaf.setPrevious(leaf.getAddress());
+            setPrevious(mutation, leaf.getNext(), nextLeaf.getAddress());
+        }
         nextLeaf.setNext(leaf.getNext());
         leaf.setNext(nextLeaf.getAddress());
     }
@@ -46,14 +46,18 @@ final class Level<T, A> {
      * Lock the given tier according to the locker property and add it to the
      * set of locked tiers. The set of locked tiers keeps track of the tiers
      * that need to be unlocked as well as holds onto a hard reference to the
-     * tiers so that they are not garbage collected.
+     * tiers so that they are not garbage collected. A tier that is already in
+     * the set of locked tiers is not locked again, since it is only unlocked
+     * once when the level is released.
      * 
      * @param tier
      *            The tier to lock.
      */
     public void lockAndAdd(Tier<?, A> tier) {
-        lock_(tier);
-        add_(tier);
+        if (!lockedTiers.containsKey(tier.getAddress())) {
+            lock_(tier);
+            add_(tier);
+        }
     }
 
     /**
@@ -70,18 +74,22 @@ final class Level<T, A> {
         
         lockedTiers.remove(tier.getAddress());
         unlock_(tier);
+        tier.unpin();
     }
 
     /**
      * Add the tier to the set of locked tiers. The set of locked tiers keeps
      * track of the tiers that need to be unlocked as well as holds onto a hard
-     * reference to the tiers so that they are not garbage collected.
+     * reference to the tiers so that they are not garbage collected. A tier
+     * added to the set is pinned so that it is not evicted from a tier pool.
      * 
      * @param tier
      *            The tier to add to the set of locked tiers.
      */
     public void add_(Tier<?, A> tier) {
-        lockedTiers.put(tier.getAddress(), tier);
+        if (lockedTiers.put(tier.getAddress(), tier) == null) {
+            tier.pin();
+        }
     }
 
     /**
@@ -118,11 +126,13 @@ final class Level<T, A> {
      * Unlock all the tiers in the set of tiers according to the locker property
      * and remove them from the set of locked tiers. The set of locked tiers
      * keeps track of the tiers that need to be unlocked as well as holds onto a
-     * hard reference to the tiers so that they are not garbage collected.
+     * hard reference to the tiers so that they are not garbage collected. The
+     * tiers are unpinned.
      */
     public void releaseAndClear() {
         for (Tier<?, A> tier : lockedTiers.values()) {
             locker.getLock(tier.readWriteLock).unlock();
+            tier.unpin();
         }
         lockedTiers.clear();
     }
@@ -159,15 +169,12 @@ final class Level<T, A> {
     public boolean upgrade(Level<T, A> levelOfChild) {
         if (!locker.isWrite()) {
             release();
-            // TODO Use Release and Clear.
-            levelOfChild.release();
-            levelOfChild.lockedTiers.clear();
+            levelOfChild.releaseAndClear();
             exclusive();
             levelOfChild.exclusive();
             return true;
         } else if (!levelOfChild.locker.isWrite()) {
-            levelOfChild.release();
-            levelOfChild.lockedTiers.clear();
+            levelOfChild.releaseAndClear();
             levelOfChild.exclusive();
             return true;
         }
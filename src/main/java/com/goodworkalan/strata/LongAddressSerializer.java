@@ -0,0 +1,47 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An address serializer for long addresses, such as file positions.
+ * 
+ * @author Alan Gutierrez
+ */
+public final class LongAddressSerializer
+implements AddressSerializer<Long> {
+    /**
+     * Get the width of a long.
+     * 
+     * @return The width of an address in bytes.
+     */
+    public int getWidth() {
+        return 8;
+    }
+
+    /**
+     * Read a long address from the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the address.
+     * @return The address.
+     */
+    public Long read(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset);
+    }
+
+    /**
+     * Write a long address to the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the address.
+     * @param address
+     *            The address.
+     */
+    public void write(ByteBuffer buffer, int offset, Long address) {
+        buffer.putLong(offset, address);
+    }
+}
@@ -0,0 +1,64 @@
+package com.goodworkalan.strata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An eviction strategy that evicts the least recently used tier. The least
+ * recently used tier is offered as the victim whether or not it is pinned, the
+ * tier pool treats a tier that it cannot evict as an access, which moves the
+ * tier to the most recently used position, so that choosing a victim does not
+ * scan past the pinned tiers.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class LruEviction<T, A> implements Eviction<T, A> {
+    /** The tiers by address from least to most recently used. */
+    private final Map<A, Tier<T, A>> tiers = new LinkedHashMap<A, Tier<T, A>>(16, 0.75f, true);
+
+    /**
+     * Add the given tier as the most recently used tier.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void admit(Tier<T, A> tier) {
+        tiers.put(tier.getAddress(), tier);
+    }
+
+    /**
+     * Move the given tier to the most recently used position.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void access(Tier<T, A> tier) {
+        tiers.get(tier.getAddress());
+    }
+
+    /**
+     * Remove the given tier.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    public void remove(Tier<T, A> tier) {
+        tiers.remove(tier.getAddress());
+    }
+
+    /**
+     * Return the least recently used tier.
+     * 
+     * @return The least recently used tier or null if there are no tiers.
+     */
+    public Tier<T, A> victim() {
+        Iterator<Tier<T, A>> values = tiers.values().iterator();
+        return values.hasNext() ? values.next() : null;
+    }
+}
@@ -0,0 +1,408 @@
+package com.goodworkalan.strata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A persistent storage strategy that stores tiers in fixed size pages of a
+ * memory mapped file. The address of a tier is the file position of its page.
+ * Loading a tier does not deserialize the tier, it returns a view of the page
+ * in the memory map, so that records are read from and written to the mapped
+ * page directly.
+ * <p>
+ * The first page of the file is a header page that records the page size and
+ * the head of a linked list of free pages. Freed pages are reused before the
+ * file is extended. The header page is at position zero, so zero is the null
+ * address. An allocation or a free marks the region of the header page dirty,
+ * along with the region of a freed page, so that the free list is forced to
+ * disk with the next batch. The stage frees tiers after the batch that
+ * removes their last references is written, so a failure between the two
+ * leaks the freed pages but never reuses a page that is still referenced.
+ * <p>
+ * The file is mapped in regions of many pages, so that a load does not map a
+ * new buffer, but slices a view of the page from a region that is already
+ * mapped.
+ * <p>
+ * The tiers that are in use are tracked by address so that every thread that
+ * loads an address gets the same tier and the same tier lock. The tiers are
+ * weakly referenced, since the page is the tier, a tier that is no longer
+ * referenced is simply a view that can be sliced again.
+ * <p>
+ * Records are encoded by the record serializer of the schema of the b+tree.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ */
+public final class MappedStorage<T>
+implements BatchStorage<T, Long> {
+    /** The magic number at the start of the header page. */
+    private final static int MAGIC = 0x53545241;
+
+    /** The offset of the page size in the header page. */
+    private final static int PAGE_SIZE = 4;
+
+    /** The offset of the address of the first free page in the header page. */
+    private final static int FREE = 8;
+
+    /** The offset of the count of pages in the file in the header page. */
+    private final static int PAGE_COUNT = 16;
+
+    /** The size of the header. */
+    private final static int HEADER_SIZE = 24;
+
+    /** The number of pages in a mapped region. */
+    private final static int REGION_PAGES = 1024;
+
+    /** The serializer for page addresses. */
+    final static AddressSerializer<Long> ADDRESS_SERIALIZER = new LongAddressSerializer();
+
+    /** The file. */
+    private final RandomAccessFile file;
+
+    /** The channel of the file. */
+    private final FileChannel channel;
+
+    /** The size of a page. */
+    private final int pageSize;
+
+    /** The record serializer. */
+    private final RecordSerializer<T> recordSerializer;
+
+    /** The summary serializer or null if branches are not summarized. */
+    private final RecordSerializer<?> summarySerializer;
+
+    /** The size of a mapped region. */
+    private final long regionSize;
+
+    /** The mapped regions of the file. */
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+    /** The weakly referenced tiers that are in use by address. */
+    private final Map<Long, TierReference<T>> tiers = new HashMap<Long, TierReference<T>>();
+
+    /** The queue of weak references to tiers that are no longer in use. */
+    private final ReferenceQueue<MappedTier<T>> queue = new ReferenceQueue<MappedTier<T>>();
+
+    /** The indexes of the regions written since the last batch was forced. */
+    private final Set<Long> dirtyRegions = new TreeSet<Long>();
+
+    /**
+     * Open the page file at the given file location, creating it if it does
+     * not exist.
+     *
+     * @param location
+     *            The file location.
+     * @param pageSize
+     *            The size of a page.
+     * @param schema
+     *            The schema of the b+tree that provides the record and
+     *            summary serializers.
+     * @exception StrataException
+     *                If the file cannot be opened or if it is not a page file
+     *                with the given page size.
+     */
+    public MappedStorage(File location, int pageSize, Schema<T> schema) {
+        if (pageSize < HEADER_SIZE || pageSize > Integer.MAX_VALUE / REGION_PAGES) {
+            throw new IllegalArgumentException();
+        }
+        this.pageSize = pageSize;
+        this.recordSerializer = schema.getRecordSerializer();
+        this.summarySerializer = schema.getSummarySerializer();
+        this.regionSize = (long) pageSize * REGION_PAGES;
+        try {
+            this.file = new RandomAccessFile(location, "rw");
+            this.channel = file.getChannel();
+            boolean empty = channel.size() == 0;
+            ByteBuffer header = getPage(0L);
+            if (empty) {
+                header.putInt(0, MAGIC);
+                header.putInt(PAGE_SIZE, pageSize);
+                header.putLong(FREE, 0L);
+                header.putLong(PAGE_COUNT, 1L);
+                dirtyRegions.add(0L);
+            } else if (header.getInt(0) != MAGIC || header.getInt(PAGE_SIZE) != pageSize) {
+                throw new StrataException("Not a page file with a page size of " + pageSize + ": " + location);
+            }
+        } catch (IOException e) {
+            throw new StrataException("Unable to open page file: " + location, e);
+        }
+    }
+
+    /**
+     * Get the region that contains the page at the given address, mapping the
+     * region if it has not been mapped.
+     *
+     * @param address
+     *            The page address.
+     * @return The mapped region.
+     * @throws IOException
+     *             For any I/O error.
+     */
+    private synchronized MappedByteBuffer getRegion(long address) throws IOException {
+        int index = (int) (address / regionSize);
+        while (regions.size() <= index) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, regions.size() * regionSize, regionSize));
+        }
+        return regions.get(index);
+    }
+
+    /**
+     * Slice a view of the page at the given address from its mapped region.
+     *
+     * @param address
+     *            The page address.
+     * @return A view of the page.
+     * @throws IOException
+     *             For any I/O error.
+     */
+    private ByteBuffer getPage(long address) throws IOException {
+        ByteBuffer page = getRegion(address).duplicate();
+        int offset = (int) (address % regionSize);
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Remove the references to tiers that are no longer in use from the map of
+     * tiers by address.
+     */
+    private void purge() {
+        Reference<? extends MappedTier<T>> reference;
+        while ((reference = queue.poll()) != null) {
+            // Only tier references are registered with the queue.
+            TierReference<?> tierReference = (TierReference<?>) reference;
+            if (tiers.get(tierReference.address) == tierReference) {
+                tiers.remove(tierReference.address);
+            }
+        }
+    }
+
+    /**
+     * Create a view of the page at the given address and record it in the map
+     * of tiers that are in use.
+     *
+     * @param address
+     *            The page address.
+     * @return The tier.
+     * @throws IOException
+     *             For any I/O error.
+     */
+    private MappedTier<T> view(long address) throws IOException {
+        MappedTier<T> tier = new MappedTier<T>(recordSerializer, summarySerializer, address, getPage(address));
+        tiers.put(address, new TierReference<T>(tier, queue));
+        return tier;
+    }
+
+    /**
+     * Allocate a page for a tier that can hold the given capacity of records
+     * or branches. A freed page is reused if one is available, otherwise the
+     * page is appended to the file.
+     *
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @return A new tier.
+     * @exception IllegalArgumentException
+     *                If a tier of the given capacity does not fit in a page.
+     */
+    public synchronized Tier<T, Long> allocate(boolean leaf, int capacity) {
+        if (ByteBufferTier.getBufferSize(leaf, capacity, recordSerializer.getWidth(), ADDRESS_SERIALIZER.getWidth(), ByteBufferTier.getSummarySize(summarySerializer)) > pageSize) {
+            throw new IllegalArgumentException();
+        }
+        purge();
+        try {
+            ByteBuffer header = getPage(0L);
+            long address = header.getLong(FREE);
+            if (address == 0L) {
+                long pageCount = header.getLong(PAGE_COUNT);
+                address = pageCount * pageSize;
+                header.putLong(PAGE_COUNT, pageCount + 1);
+            } else {
+                header.putLong(FREE, getPage(address).getLong(0));
+            }
+            dirtyRegions.add(0L);
+            ByteBufferTier.initialize(getPage(address), leaf);
+            MappedTier<T> tier = view(address);
+            tier.setNext(0L);
+            tier.setPrevious(0L);
+            return tier;
+        } catch (IOException e) {
+            throw new StrataException("Unable to allocate a page.", e);
+        }
+    }
+
+    /**
+     * Load the tier at the given address. If the tier is in use, the tier in
+     * use is returned, otherwise a new view of the page is returned.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     * @return The tier.
+     */
+    public synchronized Tier<T, Long> load(Stash stash, Long address) {
+        purge();
+        TierReference<T> reference = tiers.get(address);
+        if (reference != null) {
+            MappedTier<T> tier = reference.get();
+            if (tier != null) {
+                return tier;
+            }
+        }
+        try {
+            return view(address);
+        } catch (IOException e) {
+            throw new StrataException("Unable to load a page.", e);
+        }
+    }
+
+    /**
+     * Write the tier by recording the region that contains its page as dirty.
+     * The tier contents have already been written to the memory map, so the
+     * region is not forced to disk until the next batch is written or the
+     * file is closed.
+     *
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tier
+     *            The tier.
+     */
+    public synchronized void write(Stash stash, Tier<T, Long> tier) {
+        dirtyRegions.add(tier.getAddress() / regionSize);
+    }
+
+    /**
+     * Write the given batch of tiers by forcing each region that contains one
+     * of their pages, a page of a tier written since the last batch, or the
+     * header page if a page was allocated or freed since the last batch, to
+     * disk, in address order. Each region is forced once per batch.
+     *
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    public void writeBatch(Stash stash, List<Tier<T, Long>> tiers) {
+        Set<Long> regions;
+        synchronized (this) {
+            for (Tier<T, Long> tier : tiers) {
+                dirtyRegions.add(tier.getAddress() / regionSize);
+            }
+            regions = new TreeSet<Long>(dirtyRegions);
+            dirtyRegions.clear();
+        }
+        try {
+            for (long region : regions) {
+                getRegion(region * regionSize).force();
+            }
+        } catch (IOException e) {
+            throw new StrataException("Unable to write a page.", e);
+        }
+    }
+
+    /**
+     * Free the page at the given address by pushing it onto the linked list of
+     * free pages.
+     *
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     */
+    public synchronized void free(Stash stash, Long address) {
+        tiers.remove(address);
+        try {
+            ByteBuffer header = getPage(0L);
+            getPage(address).putLong(0, header.getLong(FREE));
+            header.putLong(FREE, address);
+            dirtyRegions.add(0L);
+            dirtyRegions.add(address / regionSize);
+        } catch (IOException e) {
+            throw new StrataException("Unable to free a page.", e);
+        }
+    }
+
+    /**
+     * Get the null address value, the address of the header page.
+     *
+     * @return The null address value.
+     */
+    public Long getNull() {
+        return 0L;
+    }
+
+    /**
+     * Return true if the given address is the null address value.
+     *
+     * @param address
+     *            A storage address.
+     * @return True if the address is null.
+     */
+    public boolean isNull(Long address) {
+        return address == null || address.longValue() == 0L;
+    }
+
+    /**
+     * Force the mapped regions to disk and close the file.
+     */
+    public synchronized void close() {
+        try {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+            regions.clear();
+            dirtyRegions.clear();
+            tiers.clear();
+            file.close();
+        } catch (IOException e) {
+            throw new StrataException("Unable to close page file.", e);
+        }
+    }
+
+    /**
+     * A weak reference to a tier that records the address of the tier, so that
+     * it can be removed from the map of tiers in use.
+     *
+     * @param <T>
+     *            The value type of the b+tree objects.
+     */
+    private final static class TierReference<T>
+    extends WeakReference<MappedTier<T>> {
+        /** The address of the tier. */
+        public final long address;
+
+        /**
+         * Create a weak reference to the given tier.
+         *
+         * @param tier
+         *            The tier.
+         * @param queue
+         *            The queue that receives the reference when the tier is no
+         *            longer in use.
+         */
+        public TierReference(MappedTier<T> tier, ReferenceQueue<MappedTier<T>> queue) {
+            super(tier, queue);
+            this.address = tier.getAddress();
+        }
+    }
+}
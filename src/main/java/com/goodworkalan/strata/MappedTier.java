@@ -0,0 +1,47 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A tier that is a view of a page in a memory mapped file. Records and child
+ * addresses are read from and written to the page directly, so that there is
+ * no deserialization when a tier is loaded and no serialization when it is
+ * written. Addresses are the long file positions of pages.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ */
+final class MappedTier<T> extends ByteBufferTier<T, Long> {
+    /** The address of the page. */
+    private final long address;
+
+    /**
+     * Create a view of the given page at the given address.
+     *
+     * @param recordSerializer
+     *            The record serializer.
+     * @param summarySerializer
+     *            The summary serializer or null if branches are not
+     *            summarized.
+     * @param address
+     *            The address of the page.
+     * @param page
+     *            The view of the page in the memory map.
+     */
+    public MappedTier(RecordSerializer<T> recordSerializer, RecordSerializer<?> summarySerializer, long address, ByteBuffer page) {
+        super(page, recordSerializer, MappedStorage.ADDRESS_SERIALIZER, summarySerializer);
+        this.address = address;
+    }
+
+    /**
+     * Get the address of this tier.
+     *
+     * @return The address.
+     */
+    @Override
+    public Long getAddress() {
+        return address;
+    }
+}
@@ -49,11 +49,14 @@ implements Operation<Record, Address> {
         parent.clear(index, 1);
 
         right.setRecord(0, pivot);
+        Structure<Record, Address> structure = mutation.getStructure();
         for (int i = 0, stop = right.getSize(); i < stop; i++) {
-            left.addBranch(i, right.getRecord(i), right.getChildAddress(i));
+            left.addBranch(left.getSize(), right.getRecord(i), right.getChildAddress(i));
+            structure.copySummary(right, i, left, left.getSize() - 1);
         }
+        structure.summarize(mutation.getStash(), parent, parent.getIndexOfChildAddress(left.getAddress()));
 
-        Stage<Record, Address> writer = mutation.getStructure().getStage();
+        Stage<Record, Address> writer = structure.getStage();
         writer.free(mutation.getStash(), right);
         writer.dirty(mutation.getStash(), parent);
         writer.dirty(mutation.getStash(), left);
@@ -30,6 +30,12 @@ implements Operation<T, A> {
 
     // TODO Document.
     public void operate(Mutation<T, A> mutation) {
+        // If the object was removed from a linked list of duplicate index
+        // values that follows the right leaf, the leaves will not fit.
+        if (left.getSize() + right.getSize() > mutation.getStructure().getLeafSize()) {
+            return;
+        }
+
         parent.clear(parent.getIndexOfChildAddress(right.getAddress()), 1);
 
         for (int i = 0, stop = right.getSize(); i < stop; i++) {
@@ -39,6 +45,9 @@ implements Operation<T, A> {
         // FIXME Get last leaf. Ah, yes. Make sure you grab all leaves, but
         // wait? Isn't it the case that this leaf will always be almost empty?
         left.setNext(right.getNext());
+        Leaves.setPrevious(mutation, left.getNext(), left.getAddress());
+
+        mutation.getStructure().summarize(mutation.getStash(), parent, parent.getIndexOfChildAddress(left.getAddress()));
 
         Stage<T, A> writer = mutation.getStructure().getStage();
         writer.free(mutation.getStash(), right);
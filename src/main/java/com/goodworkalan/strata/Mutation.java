@@ -1,7 +1,10 @@
 package com.goodworkalan.strata;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
 
 import com.goodworkalan.stash.Stash;
 
@@ -39,7 +42,25 @@ final class Mutation<T, A> {
      * A linked list of the per level mutation state.
      */
     final LinkedList<Level<T, A>> levels = new LinkedList<Level<T, A>>();
+
+    /**
+     * The tiers loaded or allocated by the mutation, pinned by the storage
+     * until the mutation is done with them.
+     */
+    private final List<Tier<T, A>> pinned = new ArrayList<Tier<T, A>>();
+
+    /**
+     * The inner tiers of the path from the root to the leaf in the order of
+     * the descent.
+     */
+    private final List<Tier<T, A>> path = new ArrayList<Tier<T, A>>();
     
+    /**
+     * Whether the descent locks every level exclusively, so that rewinding
+     * must not downgrade the levels to shared locks.
+     */
+    private boolean exclusive;
+
     // TODO Document.
     private boolean onlyChild;
     
@@ -185,6 +206,26 @@ final class Mutation<T, A> {
         this.onlyChild = onlyChild;
     }
 
+    /**
+     * Get whether the descent locks every level exclusively.
+     * 
+     * @return True if the descent locks every level exclusively.
+     */
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    /**
+     * Set whether the descent locks every level exclusively, so that rewinding
+     * does not downgrade the levels to shared locks.
+     * 
+     * @param exclusive
+     *            If true, every level of the descent is locked exclusively.
+     */
+    public void setExclusive(boolean exclusive) {
+        this.exclusive = exclusive;
+    }
+
     // TODO Document.
     public boolean isDeleting() {
         return deleting;
@@ -205,6 +246,7 @@ final class Mutation<T, A> {
      */
     public Tier<T, A> newInnerTier(boolean leaf) {
         Tier<T, A> inner = getStructure().getStorage().allocate(false, getStructure().getInnerSize());
+        pinned.add(inner);
         inner.setChildLeaf(leaf);
         return inner;
     }
@@ -215,10 +257,104 @@ final class Mutation<T, A> {
      * @return A new leaf tier.
      */
     public Tier<T, A> newLeafTier() {
-        return getStructure().getStorage().allocate(true, getStructure().getLeafSize());
+        Tier<T, A> leaf = getStructure().getStorage().allocate(true, getStructure().getLeafSize());
+        pinned.add(leaf);
+        return leaf;
     }
 
-    // TODO Document.
+    /**
+     * Load the tier at the given address, keeping the pin that the storage
+     * places on the tier until {@link #unpin()} is called at the end of the
+     * mutation, so that a tier the mutation reads without locking is not
+     * evicted while the mutation references it.
+     * 
+     * @param address
+     *            The address of the tier.
+     * @return The tier.
+     */
+    public Tier<T, A> load(A address) {
+        Tier<T, A> tier = getStructure().getStorage().load(stash, address);
+        pinned.add(tier);
+        return tier;
+    }
+
+    /**
+     * Add the given inner tier to the path from the root to the leaf. The
+     * inner tier must be locked by a level of the mutation.
+     * 
+     * @param inner
+     *            The next inner tier of the descent.
+     */
+    public void descend(Tier<T, A> inner) {
+        path.add(inner);
+    }
+
+    /**
+     * Count and summarize the object inserted into or removed from the leaf
+     * in the branches of the path from the leaf up to the root, if branches
+     * are counted or summarized. Leaf operations call this method once the
+     * leaf has changed and before any split or merge of the path, so that
+     * each inner tier of the path still navigates to the leaf and is still
+     * write locked.
+     * <p>
+     * The count of each branch of the path is adjusted by the given delta.
+     * The summary of each branch of the path is recomputed from the leaf or
+     * from the branches of the child inner tier below it, since a summary
+     * cannot be taken apart, unless the object was appended to the end of the
+     * records of the branch that references the leaf, in which case the
+     * summary of the object is combined with the summary of that branch.
+     * 
+     * @param delta
+     *            One for an insert or negative one for a remove.
+     * @param last
+     *            True if the object was appended after the last record of
+     *            the branch that references the leaf.
+     */
+    public void tally(int delta, boolean last) {
+        if (structure.isSummarized()) {
+            Aggregator<T, Object> aggregator = structure.getAggregator();
+            Stage<T, A> stage = structure.getStage();
+            ListIterator<Tier<T, A>> tiers = path.listIterator(path.size());
+            while (tiers.hasPrevious()) {
+                Tier<T, A> inner = tiers.previous();
+                int branch = inner.findBranch(comparable);
+                if (aggregator != null && (!last || !inner.isChildLeaf())) {
+                    structure.summarize(stash, inner, branch);
+                } else {
+                    if (structure.isCounted()) {
+                        inner.setCount(branch, inner.getCount(branch) + delta);
+                    }
+                    if (aggregator != null) {
+                        inner.setSummary(branch, structure.combine(inner.getSummary(branch), aggregator.summarize(object)));
+                    }
+                }
+                stage.dirty(stash, inner);
+            }
+        }
+    }
+
+    /**
+     * Release the pins on the tiers loaded or allocated by the mutation. The
+     * mutation must have released the locks of its levels.
+     */
+    public void unpin() {
+        for (Tier<T, A> tier : pinned) {
+            structure.unpin(tier);
+        }
+        pinned.clear();
+    }
+
+    /**
+     * Discard the split and merge operations of the levels above the given
+     * count of levels, releasing the levels that are left without
+     * operations. If branches are counted or summarized, the levels are kept
+     * locked, since every inner tier of the path is counted when the leaf
+     * changes.
+     * 
+     * @param leaveExclusive
+     *            The count of levels at the bottom of the path to leave as
+     *            they are.
+     */
     public void rewind(int leaveExclusive) {
         Iterator<Level<T, A>> eachLevel = levels.iterator();
         int size = levels.size();
@@ -235,9 +371,11 @@ final class Mutation<T, A> {
                     unlock = false;
                 }
             }
-            if (unlock) {
+            if (unlock && !structure.isSummarized()) {
                 if (levels.size() == 3) {
-                    level.downgrade();
+                    if (!exclusive) {
+                        level.downgrade();
+                    }
                 } else {
                     level.releaseAndClear();
                     eachLevel.remove();
@@ -246,10 +384,14 @@ final class Mutation<T, A> {
         }
     }
 
-    // TODO Document.
+    /**
+     * Release the levels at the top of the path that have no operations,
+     * unless branches are counted or summarized, in which case the whole path
+     * is kept locked.
+     */
     public void shift() {
         Iterator<Level<T, A>> eachLevel = levels.iterator();
-        while (levels.size() > 3 && eachLevel.hasNext()) {
+        while (!structure.isSummarized() && levels.size() > 3 && eachLevel.hasNext()) {
             Level<T, A> level = eachLevel.next();
             if (level.operations.size() != 0) {
                 break;
@@ -260,7 +402,18 @@ final class Mutation<T, A> {
         }
     }
 
-    // TODO Document.
+    /**
+     * Clear the state gathered by a descent of the b+tree, so that the
+     * mutation can descend again. The locks of the levels must already be
+     * released. Whether the leaf is an only child is kept, since it is
+     * determined by the descent that precedes the descent that locks the leaf
+     * to the left of the only child.
+     */
     public void clear() {
+        levels.clear();
+        path.clear();
+        leafOperation = null;
+        deleting = false;
+        leftLeaf = null;
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.goodworkalan.strata;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 
 import com.goodworkalan.stash.Stash;
@@ -12,15 +14,14 @@ import com.goodworkalan.stash.Stash;
  * with a specific {@link Stash} and therefore, with a specific set of
  * persistent storage transaction data.
  * <p>
- * Additionally, a thread can lock a b-tree for insert and delete exclusively,
- * either explicitly, by calling the lock method of the
- * {@link #getInsertDeleteLock()}, or implicitly, by creating the b+tree with a
- * non-zero value for {@link Schema#setMaxDirtyTiers(int)}.
+ * Additionally, a thread can lock a b-tree for insert and delete exclusively
+ * by calling the lock method of the {@link #getInsertDeleteLock()}.
  * <p>
- * NOTE: Caching dirty tiers requires an exclusive lock, so that no other thread
- * attempts to flush the dirty tiers, but I can see how the cache could be
- * common among threads, that the dirty tiers could build up, be shared among
- * threads, using to the tier level locking to control concurrency.
+ * Caching dirty tiers, by creating the b+tree with a non-zero value for
+ * {@link Schema#setMaxDirtyTiers(int)}, does not make inserts and deletes
+ * exclusive. The dirty tiers are shared among threads, using the tier level
+ * locking to control concurrency, and are written by whichever thread
+ * exceeds the maximum dirty tiers.
  * 
  * @author Alan Gutierrez
  * 
@@ -57,6 +58,16 @@ public interface Query<T> {
      */
     public void add(T object);
 
+    /**
+     * Add the objects in the given collection to the b+tree. The objects are
+     * sorted and inserted in order, so that consecutive objects that belong to
+     * the same leaf are inserted without descending the b+tree again.
+     * 
+     * @param objects
+     *            The objects to add.
+     */
+    public void addAll(Collection<? extends T> objects);
+
     /**
      * Build a comparable from the given value object using the comparable
      * factory property that provides the comparables used to order the b+tree.
@@ -77,6 +88,122 @@ public interface Query<T> {
      */
     public Cursor<T> find(Comparable<? super T> comparable);
 
+    /**
+     * Return the first object value in the b+tree that is equal to the given
+     * comparable or null if there is no such object. No cursor is created and
+     * no lock is held when this method returns.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return The first object equal to the comparable or null if not found.
+     */
+    public T get(Comparable<? super T> comparable);
+
+    /**
+     * Return true if the b+tree contains an object value equal to the given
+     * comparable. No cursor is created and no lock is held when this method
+     * returns.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return True if an object equal to the comparable is found.
+     */
+    public boolean contains(Comparable<? super T> comparable);
+
+    /**
+     * Return the first object value equal to each of the given comparables,
+     * or null for each comparable that is not found, in the order of the
+     * comparables. The comparables are expected in ascending order, so that
+     * comparables that fall in the same leaf or subtree are found without a
+     * descent from the root. No lock is held when this method returns.
+     * 
+     * @param comparables
+     *            The comparables representing the values to find.
+     * @return The objects found or null for each comparable not found.
+     */
+    public List<T> getAll(List<? extends Comparable<? super T>> comparables);
+
+    /**
+     * Return the count of object values in the b+tree that are less than the
+     * given comparable, the index of the first object value that is greater
+     * than or equal to the comparable. Only the leaf on the path to the
+     * comparable is read.
+     * 
+     * @param comparable
+     *            The comparable representing the value to rank.
+     * @return The count of object values less than the comparable.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public long rank(Comparable<? super T> comparable);
+
+    /**
+     * Return the object value at the given index in the order of the b+tree,
+     * or null if the index is outside of the b+tree.
+     * 
+     * @param index
+     *            The index of the object value.
+     * @return The object value at the index or null if there is no such object.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public T select(long index);
+
+    /**
+     * Return the count of object values in the b+tree that are greater than
+     * or equal to the given from comparable and less than the given to
+     * comparable, without visiting the leaves between the bounds.
+     * 
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The count of object values in the range.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not count the records of its branches.
+     */
+    public long count(Comparable<? super T> from, Comparable<? super T> to);
+
+    /**
+     * Return the summary of the object values in the b+tree that are greater
+     * than or equal to the given from comparable and less than the given to
+     * comparable, without visiting the leaves between the bounds.
+     * 
+     * @param <S>
+     *            The type of summary.
+     * @param aggregator
+     *            The aggregator of the schema of the b+tree.
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The summary of the object values in the range or null if there
+     *         are no object values in the range.
+     * @exception UnsupportedOperationException
+     *                If the b+tree does not summarize its branches.
+     * @exception IllegalArgumentException
+     *                If the aggregator is not the aggregator of the schema.
+     */
+    public <S> S aggregate(Aggregator<T, S> aggregator, Comparable<? super T> from, Comparable<? super T> to);
+
+    /**
+     * Return a forward cursor that iterates over the object values in the
+     * b+tree that are between the given lower and upper bounds. The cursor
+     * stops itself at the upper bound and releases its read lock on the
+     * current leaf as soon as the upper bound is passed.
+     * 
+     * @param from
+     *            The comparable representing the lower bound.
+     * @param fromInclusive
+     *            Whether object values equal to the lower bound are included.
+     * @param to
+     *            The comparable representing the upper bound.
+     * @param toInclusive
+     *            Whether object values equal to the upper bound are included.
+     * @return A forward cursor over the object values in the range.
+     */
+    public Cursor<T> range(Comparable<? super T> from, boolean fromInclusive, Comparable<? super T> to, boolean toInclusive);
+
     /**
      * Remove the first object that is equal to the given comparable that is
      * deletable according to the the given deletable if any.
@@ -98,6 +225,31 @@ public interface Query<T> {
      */
     public T remove(Comparable<? super T> comparable);
 
+    /**
+     * Remove the first object that is equal to each of the given comparables,
+     * applying the removals leaf by leaf, so that a leaf is merged at most
+     * once for a batch of removals.
+     * 
+     * @param comparables
+     *            The comparables representing the values to remove in
+     *            ascending order.
+     * @return A list of the removed objects.
+     */
+    public List<T> removeAll(Iterable<? extends Comparable<? super T>> comparables);
+
+    /**
+     * Remove the objects that are greater than or equal to the given from
+     * comparable and less than the given to comparable. The subtrees that are
+     * entirely within the range are freed without visiting their objects.
+     * 
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     * @return The count of objects removed.
+     */
+    public int removeRange(Comparable<? super T> from, Comparable<? super T> to);
+
     /**
      * Returns a cursor that references the first object in the b-tree.
      * 
@@ -106,20 +258,72 @@ public interface Query<T> {
     public Cursor<T> first();
 
     /**
-     * Flush any dirty tiers held by in memory and guarded by the insert and
-     * delete lock.
+     * Returns the last object in the b-tree or null if the b-tree is empty.
+     * 
+     * @return The last object in the b-tree.
+     */
+    public T last();
+
+    /**
+     * Returns a reverse cursor that references the last object in the b-tree
+     * and iterates backward. The b-tree must link leaves to their previous
+     * leaves.
+     * 
+     * @return A reverse cursor that references the last object in the b-tree.
+     */
+    public Cursor<T> lastCursor();
+
+    /**
+     * Return a reverse cursor that references the last object value in the
+     * b+tree that is less than or equal to the given comparable and iterates
+     * backward. The b-tree must link leaves to their previous leaves.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return A reverse cursor that references the last object value in the
+     *         b+tree that is less than or equal to the given comparable.
+     */
+    public Cursor<T> findReverse(Comparable<? super T> comparable);
+
+    /**
+     * Flush any dirty tiers held in memory, waiting for any write of dirty
+     * tiers in progress in another thread or in the background, so that every
+     * tier dirtied before the flush is written when it returns.
+     * 
+     * @exception StrataException
+     *                If a background write of dirty tiers failed.
      */
     public void flush();
 
+    /**
+     * Get the sum of the estimated sizes in bytes of the dirty tiers held in
+     * memory and not yet written, including the dirty tiers of inserts and
+     * deletes by other threads.
+     * 
+     * @return The count of bytes of dirty tiers.
+     */
+    public long getDirtyByteCount();
+
     /**
      * Destroy the b+tree by deallocating all of its pages from the persistent
-     * storage including the root page.
+     * storage including the root page. Any cursors open on the b+tree must be
+     * released before it is destroyed.
      */
     public void destroy();
     
     
     /**
      * Determine if the B+tree has the correct structure.
+     * 
+     * @return True if the verification of the b+tree finds no faults.
      */
     public boolean copacetic();
+
+    /**
+     * Verify the structure of the b+tree and return the faults found, each
+     * with the address of the tier in which it was found.
+     * 
+     * @return The list of faults found in the b+tree.
+     */
+    public List<Fault> verify();
 }
@@ -0,0 +1,173 @@
+package com.goodworkalan.strata;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Summarizes the records of a b+tree that are within a range of index values
+ * using the summaries of the branches of the inner tiers. The summary of a
+ * branch that is entirely within the range is taken from its inner tier
+ * without visiting its subtree. Only the branches at the boundaries of the
+ * range are descended, so only the leaves at the boundaries of the range are
+ * read.
+ * <p>
+ * A branch covers the records that are greater than or equal to its pivot and
+ * less than or equal to the pivot of the next branch, so a branch is covered
+ * by the range only if the pivot of the next branch is strictly less than the
+ * end of the range, as with a range removal.
+ * <p>
+ * The inner tiers of the boundaries are read locked top down and held until
+ * their branches have been summarized. The leaves of a branch and the linked
+ * list of duplicate index values that follows it are read with lock coupling.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class RangeAggregation<T, A> {
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<T, A> structure;
+
+    /** The inclusive start of the range. */
+    private final Comparable<? super T> from;
+
+    /** The exclusive end of the range. */
+    private final Comparable<? super T> to;
+
+    /**
+     * Create a range aggregation.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     */
+    public RangeAggregation(Stash stash, Structure<T, A> structure, Comparable<? super T> from, Comparable<? super T> to) {
+        this.stash = stash;
+        this.structure = structure;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Summarize the records within the range of the b+tree with the given
+     * root.
+     *
+     * @param root
+     *            The root of the b+tree.
+     * @return The summary of the records within the range or null if there
+     *         are no records within the range.
+     */
+    public Object aggregate(Tier<T, A> root) {
+        return aggregate(root, null, null);
+    }
+
+    /**
+     * Return true if the branch with the given bounds is covered by the
+     * range. A null bound is unbounded.
+     *
+     * @param lower
+     *            The pivot of the branch.
+     * @param upper
+     *            The pivot of the subsequent branch.
+     * @return True if every record of the branch is in the range.
+     */
+    private boolean isCovered(T lower, T upper) {
+        return lower != null && upper != null && from.compareTo(lower) <= 0 && to.compareTo(upper) > 0;
+    }
+
+    /**
+     * Summarize the records within the range of the subtree of the given inner
+     * tier, combining the summaries of the covered branches with the summaries
+     * of the branches that intersect the range but are not covered.
+     *
+     * @param inner
+     *            The inner tier.
+     * @param lower
+     *            The lower bound of the inner tier or null if unbounded.
+     * @param upper
+     *            The upper bound of the inner tier or null if unbounded.
+     * @return The summary of the records within the range or null.
+     */
+    private Object aggregate(Tier<T, A> inner, T lower, T upper) {
+        inner.readWriteLock.readLock().lock();
+        try {
+            Object summary = null;
+            for (int i = 0, size = inner.getSize(); i < size; i++) {
+                T childLower = i == 0 ? lower : inner.getRecord(i);
+                T childUpper = i + 1 < size ? inner.getRecord(i + 1) : upper;
+                if (childLower != null && to.compareTo(childLower) <= 0) {
+                    break;
+                }
+                if (childUpper != null && from.compareTo(childUpper) > 0) {
+                    continue;
+                }
+                if (isCovered(childLower, childUpper)) {
+                    summary = structure.combine(summary, inner.getSummary(i));
+                } else if (inner.isChildLeaf()) {
+                    summary = structure.combine(summary, aggregate(inner.getChildAddress(i)));
+                } else {
+                    Tier<T, A> child = structure.getStorage().load(stash, inner.getChildAddress(i));
+                    summary = structure.combine(summary, aggregate(child, childLower, childUpper));
+                    structure.unpin(child);
+                }
+            }
+            return summary;
+        } finally {
+            inner.readWriteLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Summarize the records within the range of the leaf at the given address
+     * and of the linked list of duplicate index values that follows it.
+     *
+     * @param address
+     *            The address of the leaf.
+     * @return The summary of the records within the range or null.
+     */
+    private Object aggregate(A address) {
+        Storage<T, A> storage = structure.getStorage();
+        Aggregator<T, Object> aggregator = structure.getAggregator();
+        Object summary = null;
+        Tier<T, A> leaf = storage.load(stash, address);
+        leaf.readWriteLock.readLock().lock();
+        structure.unpin(leaf);
+        try {
+            for (;;) {
+                for (int i = 0, stop = leaf.getSize(); i < stop; i++) {
+                    T record = leaf.getRecord(i);
+                    if (to.compareTo(record) <= 0) {
+                        return summary;
+                    }
+                    if (from.compareTo(record) <= 0) {
+                        summary = structure.combine(summary, aggregator.summarize(record));
+                    }
+                }
+                if (leaf.getSize() == 0 || storage.isNull(leaf.getNext())) {
+                    return summary;
+                }
+                Comparable<? super T> last = structure.getComparableFactory().newComparable(stash, leaf.getRecord(leaf.getSize() - 1));
+                Tier<T, A> next = storage.load(stash, leaf.getNext());
+                next.readWriteLock.readLock().lock();
+                structure.unpin(next);
+                leaf.readWriteLock.readLock().unlock();
+                leaf = next;
+                if (leaf.getSize() == 0 || last.compareTo(leaf.getRecord(0)) != 0) {
+                    return summary;
+                }
+            }
+        } finally {
+            leaf.readWriteLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.goodworkalan.strata;
+
+/**
+ * A cursor that iterates forward over the records of a b+tree that are less
+ * than an upper bound, wrapping an open ended forward cursor. The cursor reads
+ * one record ahead of the record it returns, so that it knows that the upper
+ * bound has been passed before the caller asks for the next record, and
+ * releases the read lock on the current leaf as soon as the bound is passed.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <Record>
+ *            The value type of the b+tree objects.
+ */
+final class RangeCursor<Record>
+implements Cursor<Record> {
+    /** The open ended forward cursor. */
+    private final Cursor<Record> cursor;
+
+    /** The comparable representing the upper bound of the range. */
+    private final Comparable<? super Record> to;
+
+    /** Whether the upper bound is included in the range. */
+    private final boolean toInclusive;
+
+    /** The next record returned by this cursor or null if there is none. */
+    private Record next;
+
+    /**
+     * Create a range cursor over the given cursor that returns the given next
+     * record, then the records of the given cursor until the given upper bound
+     * is passed.
+     * 
+     * @param cursor
+     *            The open ended forward cursor.
+     * @param next
+     *            The next record returned by this cursor or null if the range
+     *            is empty.
+     * @param to
+     *            The comparable representing the upper bound of the range.
+     * @param toInclusive
+     *            Whether the upper bound is included in the range.
+     */
+    private RangeCursor(Cursor<Record> cursor, Record next, Comparable<? super Record> to, boolean toInclusive) {
+        this.cursor = cursor;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        this.next = within(next);
+    }
+
+    /**
+     * Create a range cursor over the given open ended forward cursor,
+     * skipping the records at the start of the cursor that are less than the
+     * given lower bound, or equal to it if the lower bound is not included in
+     * the range.
+     * 
+     * @param <Record>
+     *            The value type of the b+tree objects.
+     * @param cursor
+     *            An open ended forward cursor positioned at or just before
+     *            the first record that is greater than or equal to the lower
+     *            bound.
+     * @param from
+     *            The comparable representing the lower bound of the range.
+     * @param fromInclusive
+     *            Whether the lower bound is included in the range.
+     * @param to
+     *            The comparable representing the upper bound of the range.
+     * @param toInclusive
+     *            Whether the upper bound is included in the range.
+     * @return A range cursor.
+     */
+    public static <Record> Cursor<Record> newRangeCursor(Cursor<Record> cursor, Comparable<? super Record> from, boolean fromInclusive, Comparable<? super Record> to, boolean toInclusive) {
+        Record next = cursor.hasNext() ? cursor.next() : null;
+        while (next != null && below(from, fromInclusive, next)) {
+            next = cursor.hasNext() ? cursor.next() : null;
+        }
+        return new RangeCursor<Record>(cursor, next, to, toInclusive);
+    }
+
+    /**
+     * Return true if the given record is below the given lower bound. A find
+     * that lands at the end of a leaf that is followed by a linked list of
+     * duplicate index values can start the open ended cursor on records less
+     * than the lower bound, so they are skipped as well as the records equal
+     * to an exclusive lower bound.
+     * 
+     * @param <Record>
+     *            The value type of the b+tree objects.
+     * @param from
+     *            The comparable representing the lower bound of the range.
+     * @param fromInclusive
+     *            Whether the lower bound is included in the range.
+     * @param record
+     *            The record.
+     * @return True if the record is below the lower bound.
+     */
+    private static <Record> boolean below(Comparable<? super Record> from, boolean fromInclusive, Record record) {
+        int compare = from.compareTo(record);
+        return compare > 0 || (!fromInclusive && compare == 0);
+    }
+
+    /**
+     * Return the given record if it is within the upper bound of the range,
+     * otherwise release the open ended cursor and return null.
+     * 
+     * @param record
+     *            The record or null if the open ended cursor is exhausted.
+     * @return The record or null if it is beyond the upper bound.
+     */
+    private Record within(Record record) {
+        if (record != null) {
+            int compare = to.compareTo(record);
+            if (compare > 0 || (toInclusive && compare == 0)) {
+                return record;
+            }
+        }
+        cursor.release();
+        return null;
+    }
+
+    /**
+     * Create a new cursor that starts from the current location of this cursor.
+     * If this cursor has passed the upper bound, the new cursor is also
+     * exhausted.
+     * 
+     * @return A new cursor based on this cursor.
+     */
+    public Cursor<Record> newCursor() {
+        return new RangeCursor<Record>(next == null ? cursor : cursor.newCursor(), next, to, toInclusive);
+    }
+
+    /**
+     * Return true if the cursor has more values within the range.
+     * 
+     * @return True if the cursor has more values.
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * Return the next value in the range.
+     * 
+     * @return The next cursor value.
+     * @exception IllegalStateException
+     *                If there are no more values in the range.
+     */
+    public Record next() {
+        if (next == null) {
+            throw new IllegalStateException();
+        }
+        Record record = next;
+        next = within(cursor.hasNext() ? cursor.next() : null);
+        return record;
+    }
+
+    /**
+     * The remove operation is unsupported.
+     * 
+     * @exception UnsupportedOperationException
+     *                Thrown to indicate that the remove operation is not
+     *                supported.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the cursor by releasing the read lock on the current leaf tier.
+     */
+    public void release() {
+        next = null;
+        cursor.release();
+    }
+}
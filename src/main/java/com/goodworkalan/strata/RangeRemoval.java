@@ -0,0 +1,420 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Removes the subtrees of a b+tree that are entirely within a range of index
+ * values without visiting their records. The subtrees are found by comparing
+ * the range against the pivots of the inner tiers. A run of covered branches
+ * is removed from its inner tier, the leaves of the run are unlinked from the
+ * linked list of leaves and every tier of the run is freed through the stage.
+ * <p>
+ * The leaves at the boundaries of the range are not trimmed, the objects that
+ * remain in the range after the removal are removed by the query one by one,
+ * using the generalized mutation.
+ * <p>
+ * The inner tiers along the boundaries of the range lose the branches that
+ * are cut. Once the branches of an inner tier have been cut, each of its
+ * children on a boundary path is merged with a sibling if the two fit in a
+ * single inner tier, the test that the generalized mutation applies to the
+ * inner tiers of its path, working up from the leaves, so that the removal
+ * does not leave a trail of underfull inner tiers. Where the left and right
+ * boundaries of the range part ways, the two boundary children become
+ * siblings and are merged with each other if they fit, and the children that
+ * meet at the seam of a merged tier are merged in turn, down to the inner
+ * tiers of leaves. The leaves are merged by the generalized mutation as it
+ * removes the objects that remain in the range.
+ * <p>
+ * If branches are counted or summarized, the branch to each child on a
+ * boundary path is counted again from the branches of the child once the
+ * branches of the child have been cut, and the branch to a merged tier is
+ * counted again after the merge, while the child and its parent are still
+ * write locked. The branches of the leaves at the boundaries are counted by
+ * the generalized mutation as it removes the remaining objects.
+ * <p>
+ * A branch covers the records that are greater than or equal to its pivot and
+ * less than or equal to the pivot of the next branch, since a run of equal
+ * index values can end in a leaf that precedes the leaf referenced by the
+ * pivot of that index value. A branch is therefore covered by the range only
+ * if the pivot of the next branch is strictly less than the end of the range.
+ * <p>
+ * The removal is performed while the insert delete lock is held, so the only
+ * concurrent actors are readers. Inner tiers and leaves are write locked as
+ * they are changed or freed, top down and left to right, the same order in
+ * which readers lock.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class RangeRemoval<T, A> {
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<T, A> structure;
+
+    /** The inclusive start of the range. */
+    private final Comparable<? super T> from;
+
+    /** The exclusive end of the range. */
+    private final Comparable<? super T> to;
+
+    /** The tiers write locked by the removal. */
+    private final Set<Tier<T, A>> locked = new HashSet<Tier<T, A>>();
+
+    /** The tiers loaded by the removal, pinned until the removal ends. */
+    private final List<Tier<T, A>> pinned = new ArrayList<Tier<T, A>>();
+
+    /** The last leaf visited that was not removed. */
+    private Tier<T, A> prior;
+
+    /** The count of objects removed. */
+    private int count;
+
+    /**
+     * Create a range removal.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param from
+     *            The inclusive start of the range.
+     * @param to
+     *            The exclusive end of the range.
+     */
+    public RangeRemoval(Stash stash, Structure<T, A> structure, Comparable<? super T> from, Comparable<? super T> to) {
+        this.stash = stash;
+        this.structure = structure;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Remove the subtrees of the b+tree with the given root that are entirely
+     * within the range and return the count of objects removed.
+     *
+     * @param root
+     *            The root of the b+tree.
+     * @return The count of objects removed.
+     */
+    public int remove(Tier<T, A> root) {
+        try {
+            remove(root, null, null, structure.getStorage().getNull());
+            fill(root);
+        } finally {
+            for (Tier<T, A> tier : locked) {
+                tier.readWriteLock.writeLock().unlock();
+            }
+            locked.clear();
+            for (Tier<T, A> tier : pinned) {
+                structure.unpin(tier);
+            }
+            pinned.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Write lock the given tier if it is not already locked by this removal.
+     *
+     * @param tier
+     *            The tier.
+     */
+    private void lock(Tier<T, A> tier) {
+        if (locked.add(tier)) {
+            tier.readWriteLock.writeLock().lock();
+        }
+    }
+
+    /**
+     * Load the tier at the given address, keeping the pin that the storage
+     * places on the tier until the removal ends.
+     *
+     * @param address
+     *            The address.
+     * @return The tier.
+     */
+    private Tier<T, A> load(A address) {
+        Tier<T, A> tier = structure.getStorage().load(stash, address);
+        pinned.add(tier);
+        return tier;
+    }
+
+    /**
+     * Return true if the branch with the given bounds is covered by the
+     * range. A null bound is unbounded.
+     *
+     * @param lower
+     *            The pivot of the branch.
+     * @param upper
+     *            The pivot of the subsequent branch.
+     * @return True if every record of the branch is in the range.
+     */
+    private boolean isCovered(T lower, T upper) {
+        return lower != null && upper != null && from.compareTo(lower) <= 0 && to.compareTo(upper) > 0;
+    }
+
+    /**
+     * Get the address of the leftmost leaf of the subtree at the given
+     * address.
+     *
+     * @param address
+     *            The address of a tier.
+     * @param leaf
+     *            Whether the tier at the address is a leaf.
+     * @return The address of the leftmost leaf.
+     */
+    private A getLeftmost(A address, boolean leaf) {
+        while (!leaf) {
+            Tier<T, A> inner = load(address);
+            address = inner.getChildAddress(0);
+            leaf = inner.isChildLeaf();
+        }
+        return address;
+    }
+
+    /**
+     * Remove the covered branches of the given inner tier and descend the
+     * branches that intersect the range but are not covered.
+     *
+     * @param inner
+     *            The inner tier.
+     * @param lower
+     *            The lower bound of the inner tier or null if unbounded.
+     * @param upper
+     *            The upper bound of the inner tier or null if unbounded.
+     * @param following
+     *            The address of the first leaf after the subtree of the inner
+     *            tier.
+     * @return The new pivot of the inner tier if the branches at the start of
+     *         the inner tier were removed, or null if the pivot is unchanged.
+     */
+    private T remove(Tier<T, A> inner, T lower, T upper, A following) {
+        lock(inner);
+        List<Tier<T, A>> cut = new ArrayList<Tier<T, A>>();
+        T pivot = null;
+        int i = 0;
+        while (i < inner.getSize()) {
+            T childLower = i == 0 ? lower : inner.getRecord(i);
+            T childUpper = i + 1 < inner.getSize() ? inner.getRecord(i + 1) : upper;
+            if (childLower != null && to.compareTo(childLower) <= 0) {
+                break;
+            }
+            if (childUpper != null && from.compareTo(childUpper) > 0) {
+                i++;
+            } else if (isCovered(childLower, childUpper)) {
+                int j = i + 1;
+                while (j < inner.getSize() && isCovered(inner.getRecord(j), j + 1 < inner.getSize() ? inner.getRecord(j + 1) : upper)) {
+                    j++;
+                }
+                A stop = j < inner.getSize() ? getLeftmost(inner.getChildAddress(j), inner.isChildLeaf()) : following;
+                unlink(getLeftmost(inner.getChildAddress(i), inner.isChildLeaf()), stop);
+                if (!inner.isChildLeaf()) {
+                    for (int k = i; k < j; k++) {
+                        free(load(inner.getChildAddress(k)));
+                    }
+                }
+                inner.clear(i, j - i);
+                if (i == 0) {
+                    // The first record of the new leftmost leaf is the new
+                    // pivot of the inner tier.
+                    pivot = inner.getRecord(0);
+                    inner.setRecord(0, null);
+                }
+                structure.getStage().dirty(stash, inner);
+            } else {
+                if (inner.isChildLeaf()) {
+                    prior = load(inner.getChildAddress(i));
+                } else {
+                    A childFollowing = i + 1 < inner.getSize() ? getLeftmost(inner.getChildAddress(i + 1), false) : following;
+                    Tier<T, A> child = load(inner.getChildAddress(i));
+                    T childPivot = remove(child, childLower, childUpper, childFollowing);
+                    structure.summarize(stash, inner, i);
+                    cut.add(child);
+                    if (childPivot != null) {
+                        if (i == 0) {
+                            pivot = childPivot;
+                        } else {
+                            inner.setRecord(i, childPivot);
+                            structure.getStage().dirty(stash, inner);
+                        }
+                    }
+                }
+                i++;
+            }
+        }
+        merge(inner, cut);
+        return pivot;
+    }
+
+    /**
+     * Merge each of the given child inner tiers of the given inner tier with
+     * its left sibling, or else with its right sibling, if the two fit in a
+     * single inner tier. The right tier of the pair is merged into the left
+     * tier and freed. A child that has already been merged into its left
+     * sibling is skipped.
+     *
+     * @param inner
+     *            The parent inner tier.
+     * @param children
+     *            The child inner tiers whose branches were cut.
+     */
+    private void merge(Tier<T, A> inner, List<Tier<T, A>> children) {
+        for (Tier<T, A> child : children) {
+            int index = inner.getIndexOfChildAddress(child.getAddress());
+            if (index == -1) {
+                continue;
+            }
+            if (index != 0) {
+                Tier<T, A> left = load(inner.getChildAddress(index - 1));
+                lock(left);
+                if (left.getSize() + child.getSize() <= structure.getInnerSize()) {
+                    merge(inner, left, child);
+                    continue;
+                }
+            }
+            if (index + 1 < inner.getSize()) {
+                Tier<T, A> right = load(inner.getChildAddress(index + 1));
+                lock(right);
+                if (child.getSize() + right.getSize() <= structure.getInnerSize()) {
+                    merge(inner, child, right);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the given right child inner tier into the given left child inner
+     * tier of the given parent and free the right child. The pivot of the
+     * right child in the parent becomes the pivot of its first branch in the
+     * left child. The children on either side of the seam of the merged tier
+     * were the last child of the left tier and the first child of the right
+     * tier, which had no common parent until now, so they are merged in turn
+     * if they are inner tiers that fit in a single inner tier.
+     *
+     * @param parent
+     *            The parent inner tier.
+     * @param left
+     *            The left child inner tier.
+     * @param right
+     *            The right child inner tier.
+     */
+    private void merge(Tier<T, A> parent, Tier<T, A> left, Tier<T, A> right) {
+        int index = parent.getIndexOfChildAddress(right.getAddress());
+        right.setRecord(0, parent.getRecord(index));
+        parent.clear(index, 1);
+        int seam = left.getSize();
+        for (int i = 0, stop = right.getSize(); i < stop; i++) {
+            left.addBranch(left.getSize(), right.getRecord(i), right.getChildAddress(i));
+            structure.copySummary(right, i, left, left.getSize() - 1);
+        }
+        right.clear(0, right.getSize());
+        Stage<T, A> stage = structure.getStage();
+        stage.free(stash, right);
+        stage.dirty(stash, left);
+        stage.dirty(stash, parent);
+        if (!left.isChildLeaf()) {
+            Tier<T, A> before = load(left.getChildAddress(seam - 1));
+            Tier<T, A> after = load(left.getChildAddress(seam));
+            lock(before);
+            lock(after);
+            if (before.getSize() + after.getSize() <= structure.getInnerSize()) {
+                merge(left, before, after);
+            }
+        }
+        structure.summarize(stash, parent, parent.getIndexOfChildAddress(left.getAddress()));
+    }
+
+    /**
+     * Fill the root with the contents of its only child for as long as the
+     * root has a single child inner tier, so that the generalized remove never
+     * finds a root inner tier with an only child.
+     *
+     * @param root
+     *            The root of the b+tree.
+     */
+    private void fill(Tier<T, A> root) {
+        Stage<T, A> stage = structure.getStage();
+        while (!root.isChildLeaf() && root.getSize() == 1) {
+            Tier<T, A> child = load(root.getChildAddress(0));
+            lock(child);
+            root.clear(0, 1);
+            for (int i = 0, stop = child.getSize(); i < stop; i++) {
+                root.addBranch(root.getSize(), child.getRecord(i), child.getChildAddress(i));
+                structure.copySummary(child, i, root, root.getSize() - 1);
+            }
+            child.clear(0, child.getSize());
+            root.setChildLeaf(child.isChildLeaf());
+            stage.free(stash, child);
+            stage.dirty(stash, root);
+        }
+    }
+
+    /**
+     * Free the leaves of the linked list from the leaf at the given first
+     * address up to but not including the leaf at the given stop address, and
+     * link the last leaf before the first leaf to the stop leaf.
+     *
+     * @param first
+     *            The address of the first leaf to free.
+     * @param stop
+     *            The address of the leaf that follows the freed leaves.
+     */
+    private void unlink(A first, A stop) {
+        if (prior == null) {
+            throw new IllegalStateException();
+        }
+        Storage<T, A> storage = structure.getStorage();
+        Stage<T, A> stage = structure.getStage();
+        Tier<T, A> tail = prior;
+        lock(tail);
+        while (!first.equals(tail.getNext())) {
+            tail = load(tail.getNext());
+            lock(tail);
+        }
+        A address = first;
+        while (!storage.isNull(address) && !address.equals(stop)) {
+            Tier<T, A> leaf = load(address);
+            lock(leaf);
+            count += leaf.getSize();
+            address = leaf.getNext();
+            stage.free(stash, leaf);
+        }
+        tail.setNext(stop);
+        if (structure.isReverseLinked() && !storage.isNull(stop)) {
+            Tier<T, A> next = load(stop);
+            lock(next);
+            next.setPrevious(tail.getAddress());
+            stage.dirty(stash, next);
+        }
+        stage.dirty(stash, tail);
+        prior = tail;
+    }
+
+    /**
+     * Free the given inner tier and the inner tiers of its subtree. The leaves
+     * of the subtree have already been freed by unlinking them.
+     *
+     * @param inner
+     *            The inner tier.
+     */
+    private void free(Tier<T, A> inner) {
+        lock(inner);
+        if (!inner.isChildLeaf()) {
+            for (int i = 0; i < inner.getSize(); i++) {
+                free(load(inner.getChildAddress(i)));
+            }
+        }
+        structure.getStage().free(stash, inner);
+    }
+}
@@ -0,0 +1,53 @@
+package com.goodworkalan.strata;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * A daemon thread that drains a reference queue of keyed references, calling
+ * the unmap method of each keyed reference that is enqueued, so that the map
+ * entries of softly referenced objects that have been collected are removed
+ * without waiting for the next access of the map.
+ * <p>
+ * There is a single reaper for all soft storage strategies, started the first
+ * time the reference queue is used. The reaper is a daemon thread that is
+ * never stopped, it does not keep the virtual machine from exiting, and it
+ * holds no references to the maps it reaps other than through the keyed
+ * references in its queue.
+ * 
+ * @author Alan Gutierrez
+ */
+final class Reaper
+implements Runnable {
+    /** The reference queue of keyed references. */
+    public final static ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+    static {
+        Thread thread = new Thread(new Reaper(), "Strata Reaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The reaper is created by the static initializer only.
+     */
+    private Reaper() {
+    }
+
+    /**
+     * Remove keyed references from the reference queue and unmap them until
+     * the virtual machine exits.
+     */
+    public void run() {
+        for (;;) {
+            try {
+                Reference<?> reference = QUEUE.remove();
+                if (reference instanceof Unmappable) {
+                    ((Unmappable) reference).unmap();
+                }
+            } catch (InterruptedException e) {
+                // Daemon thread, ignore and continue.
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A strategy for encoding records in and decoding records from the slots of
+ * page based tiers. A record serializer reads and writes records directly from
+ * and to the page buffer, so that there is no intermediate byte array.
+ * <p>
+ * Every record occupies a slot of the same width. A fixed width serializer
+ * writes every record using the entire slot. A variable width serializer writes
+ * records of varying lengths up to a maximum length.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * 
+ * @see FixedRecordSerializer
+ * @see VariableRecordSerializer
+ */
+public interface RecordSerializer<T> {
+    /**
+     * Get the width of the slot that holds an encoded record.
+     * 
+     * @return The width of a record slot in bytes.
+     */
+    public int getWidth();
+
+    /**
+     * Read a record from the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the record slot.
+     * @return The record.
+     */
+    public T read(ByteBuffer buffer, int offset);
+
+    /**
+     * Write a record to the given buffer at the given offset, using no more
+     * than the width of a record slot.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the record slot.
+     * @param record
+     *            The record.
+     */
+    public void write(ByteBuffer buffer, int offset, T record);
+}
@@ -23,12 +23,19 @@ implements Operation<T, A> {
     public void operate(Mutation<T, A> mutation) {
         parent.clear(parent.getIndexOfChildAddress(leaf.getAddress()), 1);
 
-        left.setNext(leaf.getNext());
-
         Stage<T, A> writer = mutation.getStructure().getStage();
+
+        // If there is no left leaf, the leaf is the leftmost leaf.
+        if (left == null) {
+            Leaves.setPrevious(mutation, leaf.getNext(), mutation.getStructure().getStorage().getNull());
+        } else {
+            left.setNext(leaf.getNext());
+            Leaves.setPrevious(mutation, left.getNext(), left.getAddress());
+            writer.dirty(mutation.getStash(), left);
+        }
+
         writer.free(mutation.getStash(), leaf);
         writer.dirty(mutation.getStash(), parent);
-        writer.dirty(mutation.getStash(), left);
 
         mutation.setOnlyChild(false);
     }
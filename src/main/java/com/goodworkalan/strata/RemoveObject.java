@@ -22,22 +22,23 @@ implements LeafOperation<T, A> {
         // TODO Remove single very left most.
         // TODO Remove single very right most.
         int count = 0;
-        int found = 0;
+        boolean removed = false;
         Tier<T, A> current = leaf;
+        Tier<T, A> prior = null;
         SEARCH: do {
-            for (int i = 0, stop = leaf.getSize(); i < stop; i++) {
+            for (int i = 0, stop = current.getSize(); i < stop; i++) {
                 count++;
-                T candidate = leaf.getRecord(i);
+                T candidate = current.getRecord(i);
                 int compare = mutation.getComparable().compareTo(candidate);
                 if (compare < 0) {
                     break SEARCH;
                 } else if (compare == 0) {
-                    found++;
                     if (mutation.deletable.deletable(candidate)) {
-                        leaf.clear(i, 1);
+                        current.clear(i, 1);
+                        removed = true;
                         if (count == 1) {
-                            if (leaf.getSize() != 0) {
-                                mutation.setReplacement(leaf.getRecord(0));
+                            if (current.getSize() != 0) {
+                                mutation.setReplacement(current.getRecord(0));
                             } else {
                                 // When would this ever happen?
                                 Tier<T, A> following = getNextAndLock(mutation, current, levelOfLeaf);
@@ -45,6 +46,17 @@ implements LeafOperation<T, A> {
                                     mutation.setReplacement(following.getRecord(0));
                                 }
                             }
+                        } else if (current.getSize() == 0 && prior != null) {
+                            // An empty leaf of a linked list of duplicate
+                            // index values is not referenced by an inner
+                            // tier, so we unlink it and free it.
+                            prior.setNext(current.getNext());
+                            Leaves.setPrevious(mutation, prior.getNext(), prior.getAddress());
+                            writer.dirty(mutation.getStash(), prior);
+                            writer.free(mutation.getStash(), current);
+                            mutation.setResult(candidate);
+                            mutation.tally(-1, false);
+                            return true;
                         }
                     }
                     writer.dirty(mutation.getStash(), current);
@@ -52,15 +64,16 @@ implements LeafOperation<T, A> {
                     break SEARCH;
                 }
             }
+            prior = current;
             current = getNextAndLock(mutation, current, levelOfLeaf);
         }
         while (current != null && mutation.getComparable().compareTo(current.getRecord(0)) == 0);
 
-        if (mutation.getResult() != null
-            && count == found
-            && current.getSize() == structure.getLeafSize() - 1
-            && mutation.getComparable().compareTo(current.getRecord(current.getSize() - 1)) == 0)
-        {
+        // Fill the slot of the removed object with the first object of the
+        // subsequent leaf if the subsequent leaf is a leaf of the linked list
+        // of duplicate index values, cascading down the linked list, so that
+        // only the last leaf of the linked list is ever less than full.
+        if (removed) {
             for (;;) {
                 Tier<T, A> subsequent = getNextAndLock(mutation, current, levelOfLeaf);
                 if (subsequent == null || mutation.getComparable().compareTo(subsequent.getRecord(0)) != 0) {
@@ -68,14 +81,19 @@ implements LeafOperation<T, A> {
                 }
                 current.addRecord(current.getSize(), subsequent.getRecord(0));
                 subsequent.clear(0, 1);
+                writer.dirty(mutation.getStash(), current);
                 if (subsequent.getSize() == 0) {
                     current.setNext(subsequent.getNext());
+                    Leaves.setPrevious(mutation, current.getNext(), current.getAddress());
                     writer.free(mutation.getStash(), subsequent);
-                } else {
-                    writer.dirty(mutation.getStash(), subsequent);
+                    break;
                 }
+                writer.dirty(mutation.getStash(), subsequent);
                 current = subsequent;
             }
+
+            // Count and summarize the removal in the branches of the path.
+            mutation.tally(-1, false);
         }
 
         return mutation.getResult() != null;
@@ -0,0 +1,245 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A storage strategy that keeps the inner tiers of the top levels of the
+ * b+tree resident in memory, so that loads of the root and the levels just
+ * under the root never reach the persistent storage strategy.
+ * <p>
+ * The storage does not know the depth of the tiers it loads, so the tiers are
+ * made resident by the descents of the b+tree, which call
+ * {@link #reside(Tier, int) reside} with the depth of each inner tier that
+ * they visit. A resident tier is hard referenced and pinned, so that it is
+ * not evicted from a tier pool, and it remains resident until it is freed or
+ * until it falls below the resident levels.
+ * <p>
+ * The root is split and filled in place, so when the root splits every tier
+ * other than the root moves down a level, and when the root is filled every
+ * tier other than the root moves up a level. The storage records the depth of
+ * each resident tier and {@link #shift(Object, int) shift} adjusts the depths
+ * when the root splits or is filled. A tier that moves below the resident
+ * levels is unpinned and released, while the new tiers at the top levels are
+ * made resident by the next descent.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class ResidentStorage<T, A> implements BatchStorage<T, A> {
+    /** The persistent storage strategy. */
+    private final Storage<T, A> storage;
+
+    /** The count of levels to keep resident. */
+    private final int levels;
+
+    /**
+     * Whether the persistent storage returns loaded tiers pinned, in which
+     * case resident tiers are returned pinned as well.
+     */
+    private final boolean pinned;
+
+    /** The resident tiers by address. */
+    private final ConcurrentMap<A, Tier<T, A>> tiers = new ConcurrentHashMap<A, Tier<T, A>>();
+
+    /**
+     * The depth of each resident tier by address, guarded by this storage,
+     * which also guards the admission and the release of resident tiers.
+     */
+    private final Map<A, Integer> depths = new HashMap<A, Integer>();
+
+    /**
+     * Create a resident storage that keeps the given count of levels resident
+     * in front of the given persistent storage.
+     * 
+     * @param storage
+     *            The persistent storage strategy.
+     * @param levels
+     *            The count of levels to keep resident.
+     * @param pinned
+     *            Whether the persistent storage returns loaded tiers pinned.
+     */
+    public ResidentStorage(Storage<T, A> storage, int levels, boolean pinned) {
+        this.storage = storage;
+        this.levels = levels;
+        this.pinned = pinned;
+    }
+
+    /**
+     * Make the given inner tier resident if the given depth is one of the
+     * resident levels, where the root is at depth zero. If the tier is
+     * resident but the given depth is below the resident levels, the tier is
+     * released. The resident tiers are checked without locking, so that a
+     * descent through the resident levels does not contend for this storage.
+     * 
+     * @param tier
+     *            The inner tier.
+     * @param depth
+     *            The depth of the tier.
+     */
+    public void reside(Tier<T, A> tier, int depth) {
+        boolean resident = tiers.get(tier.getAddress()) == tier;
+        if (depth < levels ? !resident : resident) {
+            synchronized (this) {
+                if (depth < levels) {
+                    if (tiers.putIfAbsent(tier.getAddress(), tier) == null) {
+                        depths.put(tier.getAddress(), depth);
+                        tier.pin();
+                    }
+                } else {
+                    release(tier.getAddress());
+                }
+            }
+        }
+    }
+
+    /**
+     * Shift the depth of every resident tier other than the root by the given
+     * count of levels, releasing the tiers that move below the resident
+     * levels. This is called with a count of one when the root splits and
+     * with a count of negative one when the root is filled by its only child.
+     * 
+     * @param root
+     *            The address of the root.
+     * @param count
+     *            The count of levels to shift.
+     */
+    public synchronized void shift(A root, int count) {
+        List<A> released = new ArrayList<A>();
+        for (Map.Entry<A, Integer> entry : depths.entrySet()) {
+            if (!entry.getKey().equals(root)) {
+                int depth = entry.getValue() + count;
+                if (depth < levels) {
+                    entry.setValue(depth);
+                } else {
+                    released.add(entry.getKey());
+                }
+            }
+        }
+        for (A address : released) {
+            release(address);
+        }
+    }
+
+    /**
+     * Remove the tier at the given address from the resident tiers, if it is
+     * resident, and unpin it. The storage must be locked.
+     * 
+     * @param address
+     *            The address of the tier.
+     */
+    private void release(A address) {
+        depths.remove(address);
+        Tier<T, A> tier = tiers.remove(address);
+        if (tier != null) {
+            tier.unpin();
+        }
+    }
+
+    /**
+     * Allocate a tier from the persistent storage.
+     * 
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @return A new tier.
+     */
+    public Tier<T, A> allocate(boolean leaf, int capacity) {
+        return storage.allocate(leaf, capacity);
+    }
+
+    /**
+     * Return the resident tier at the given address or load the tier from the
+     * persistent storage. If the persistent storage returns loaded tiers
+     * pinned, a resident tier is pinned before it is returned.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     * @return The tier.
+     */
+    public Tier<T, A> load(Stash stash, A address) {
+        Tier<T, A> tier = tiers.get(address);
+        if (tier == null) {
+            return storage.load(stash, address);
+        }
+        if (pinned) {
+            tier.pin();
+        }
+        return tier;
+    }
+
+    /**
+     * Write the given tier to the persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tier
+     *            The tier.
+     */
+    public void write(Stash stash, Tier<T, A> tier) {
+        storage.write(stash, tier);
+    }
+
+    /**
+     * Write the given batch of tiers to the persistent storage, as a single
+     * batch if the persistent storage writes batches.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    public void writeBatch(Stash stash, List<Tier<T, A>> tiers) {
+        Stage.writeBatch(storage, stash, tiers);
+    }
+
+    /**
+     * Remove the tier at the given address from the resident tiers, if it is
+     * resident, and free it in the persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     */
+    public void free(Stash stash, A address) {
+        synchronized (this) {
+            release(address);
+        }
+        storage.free(stash, address);
+    }
+
+    /**
+     * Get the null address value of the persistent storage.
+     * 
+     * @return The null address value.
+     */
+    public A getNull() {
+        return storage.getNull();
+    }
+
+    /**
+     * Return true if the given address is the null address value of the
+     * persistent storage.
+     * 
+     * @param address
+     *            A storage address.
+     * @return True if the address is null.
+     */
+    public boolean isNull(A address) {
+        return storage.isNull(address);
+    }
+}
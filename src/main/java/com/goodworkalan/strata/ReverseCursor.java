@@ -0,0 +1,309 @@
+package com.goodworkalan.strata;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A cursor implementation that iterates backward over the leaves of a b+tree
+ * by following the previous leaf links.
+ * <p>
+ * Leaves are locked from left to right, so the cursor cannot block on the lock
+ * of the previous leaf while it holds the lock of the current leaf. It first
+ * tries to lock the previous leaf without waiting. If that fails, it releases
+ * the current leaf, waits for the lock on the previous leaf and then checks
+ * that the previous leaf still links to the current leaf. If the leaves were
+ * split or merged in the meantime, the cursor descends the b+tree again to
+ * find the leaf that contains the records before the last record returned.
+ * <p>
+ * The cursor counts the values equal to the last value returned that it has
+ * returned, so that when it descends again it positions itself at the last
+ * value less than or equal to the last value returned and then skips the
+ * equal values that it has already returned.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <Record>
+ *            The value type of the b+tree objects.
+ * @param <Address>
+ *            The address type used to identify an inner or leaf tier.
+ */
+public final class ReverseCursor<Record, Address>
+implements Cursor<Record> {
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The b+tree query used to descend the b+tree again. */
+    private final CoreQuery<Record, Address> query;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<Record, Address> structure;
+
+    /**
+     * The index of the next value returned by the cursor, or negative one if
+     * the next value is in the previous leaf.
+     */
+    private int index;
+
+    /** The leaf of the next value returned by the cursor. */
+    private Tier<Record, Address> leaf;
+
+    /**
+     * The comparable that positioned the cursor or null if the cursor was
+     * positioned at the last value of the b+tree.
+     */
+    private final Comparable<? super Record> bound;
+
+    /**
+     * The comparable of the last value returned by the cursor or null if no
+     * value has been returned.
+     */
+    private Comparable<? super Record> last;
+
+    /** The count of values equal to the last value returned. */
+    private int duplicates;
+
+    /**
+     * True if the cursor has been released and the read lock on the current
+     * leaf tier has been released.
+     */
+    private boolean released;
+
+    /**
+     * Create a new reverse cursor.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param query
+     *            The b+tree query used to descend the b+tree again.
+     * @param structure
+     *            A collection of the core services of the b+tree.
+     * @param leaf
+     *            The read locked leaf containing the first value returned by
+     *            the cursor.
+     * @param index
+     *            The index of the first value returned by the cursor or
+     *            negative one if the first value is in the previous leaf.
+     * @param bound
+     *            The comparable that positioned the cursor at the last value
+     *            less than or equal to the comparable, or null if the cursor
+     *            is positioned at the last value of the b+tree.
+     */
+    public ReverseCursor(Stash stash, CoreQuery<Record, Address> query, Structure<Record, Address> structure, Tier<Record, Address> leaf, int index, Comparable<? super Record> bound) {
+        this.stash = stash;
+        this.bound = bound;
+        this.query = query;
+        this.structure = structure;
+        this.leaf = leaf;
+        this.index = index;
+    }
+
+    /**
+     * Create a new reverse cursor positioned at the last value less than or
+     * equal to the given comparable, following the leaves that begin with
+     * duplicates of a lesser or equal value. The b+tree must link leaves to
+     * their previous leaves.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param query
+     *            The b+tree query used to descend the b+tree.
+     * @param structure
+     *            A collection of the core services of the b+tree.
+     * @param bound
+     *            The comparable representing the value to find.
+     */
+    public ReverseCursor(Stash stash, CoreQuery<Record, Address> query, Structure<Record, Address> structure, Comparable<? super Record> bound) {
+        this.stash = stash;
+        this.bound = bound;
+        this.query = query;
+        this.structure = structure;
+        seek(bound);
+    }
+
+    /**
+     * Create a new cursor that starts from the current location of this cursor.
+     * The new cursor holds its own read lock on the current leaf tier. If this
+     * cursor has been released, the new cursor is also released.
+     * 
+     * @return A new cursor based on this cursor.
+     */
+    public Cursor<Record> newCursor() {
+        ReverseCursor<Record, Address> cursor = new ReverseCursor<Record, Address>(stash, query, structure, leaf, index, bound);
+        cursor.last = last;
+        cursor.duplicates = duplicates;
+        if (released) {
+            cursor.released = true;
+        } else {
+            leaf.readWriteLock.readLock().lock();
+        }
+        return cursor;
+    }
+
+    /**
+     * Return true if the cursor has more values. A cursor that has been
+     * released, either explicitly or because it reached the first value, has
+     * no more values.
+     * 
+     * @return True if the cursor has more values.
+     */
+    public boolean hasNext() {
+        if (released) {
+            return false;
+        }
+        return index >= 0 || !structure.getStorage().isNull(leaf.getPrevious());
+    }
+
+    /**
+     * Move to the previous leaf of the current leaf, positioning the cursor
+     * at the last value of the previous leaf. If the current leaf had to be
+     * released to wait for the previous leaf and the previous leaf no longer
+     * links to the current leaf, no leaf is locked and false is returned.
+     * 
+     * @return True if the cursor moved to the previous leaf, false if the
+     *         cursor must be repositioned.
+     */
+    private boolean previous() {
+        Storage<Record, Address> storage = structure.getStorage();
+        Address address = leaf.getAddress();
+        Tier<Record, Address> previous = storage.load(stash, leaf.getPrevious());
+        if (previous.readWriteLock.readLock().tryLock()) {
+            structure.unpin(previous);
+            leaf.readWriteLock.readLock().unlock();
+        } else {
+            leaf.readWriteLock.readLock().unlock();
+            previous.readWriteLock.readLock().lock();
+            structure.unpin(previous);
+            if (!address.equals(previous.getNext())) {
+                previous.readWriteLock.readLock().unlock();
+                return false;
+            }
+        }
+        leaf = previous;
+        index = leaf.getSize() - 1;
+        return true;
+    }
+
+    /**
+     * Descend the b+tree to the last value less than or equal to the given
+     * comparable and read lock its leaf, or if the comparable is null, to the
+     * last value of the b+tree. The leaves that follow the leaf of the
+     * comparable are followed for as long as they begin with a value less
+     * than or equal to the comparable, since they may begin a linked list of
+     * duplicates. The index is negative one if the value is in a previous
+     * leaf.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find or null for
+     *            the last value.
+     */
+    private void seek(Comparable<? super Record> comparable) {
+        if (comparable == null) {
+            leaf = query.descend(null, true);
+            index = leaf.getSize() - 1;
+            return;
+        }
+        Storage<Record, Address> storage = structure.getStorage();
+        leaf = query.descend(comparable, false);
+        index = leaf.find(comparable);
+        for (;;) {
+            while (index < leaf.getSize() && comparable.compareTo(leaf.getRecord(index)) >= 0) {
+                index++;
+            }
+            if (index < leaf.getSize() || storage.isNull(leaf.getNext())) {
+                break;
+            }
+            Tier<Record, Address> next = storage.load(stash, leaf.getNext());
+            next.readWriteLock.readLock().lock();
+            structure.unpin(next);
+            if (next.getSize() == 0 || comparable.compareTo(next.getRecord(0)) < 0) {
+                next.readWriteLock.readLock().unlock();
+                break;
+            }
+            leaf.readWriteLock.readLock().unlock();
+            leaf = next;
+            index = 0;
+        }
+        index--;
+    }
+
+    /**
+     * Descend the b+tree again to position the cursor at the value before the
+     * last value returned, or if no value has been returned, at the last value
+     * less than or equal to the comparable that positioned the cursor. The
+     * cursor is positioned at the last value less than or equal to the last
+     * value returned and then moved back over the values equal to the last
+     * value that it has already returned. If there are no values before the
+     * position, the index is negative and the previous link is null.
+     */
+    private void reposition() {
+        for (;;) {
+            seek(last == null ? bound : last);
+            int skip = last == null ? 0 : duplicates;
+            boolean moved = true;
+            while (moved && (skip != 0 || index < 0) && (index >= 0 || !structure.getStorage().isNull(leaf.getPrevious()))) {
+                if (index < 0) {
+                    moved = previous();
+                } else {
+                    index--;
+                    skip--;
+                }
+            }
+            if (moved) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the next value in the reverse iteration.
+     * 
+     * @return the next cursor value.
+     * @exception IllegalStateException
+     *                If the cursor has been released or if there are no more
+     *                values.
+     */
+    public Record next() {
+        if (released) {
+            throw new IllegalStateException();
+        }
+        while (index < 0) {
+            if (structure.getStorage().isNull(leaf.getPrevious())) {
+                throw new IllegalStateException();
+            }
+            if (!previous()) {
+                reposition();
+            }
+        }
+        Record record = leaf.getRecord(index--);
+        if (last != null && last.compareTo(record) == 0) {
+            duplicates++;
+        } else {
+            last = structure.getComparableFactory().newComparable(stash, record);
+            duplicates = 1;
+        }
+        if (!hasNext()) {
+            release();
+        }
+        return record;
+    }
+
+    /**
+     * The remove operation is unsupported.
+     * 
+     * @exception UnsupportedOperationException
+     *                Thrown to indicate that the remove operation is not
+     *                supported.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Release the cursor by releasing the read lock on the current leaf tier.
+     */
+    public void release() {
+        if (!released) {
+            leaf.readWriteLock.readLock().unlock();
+            released = true;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.goodworkalan.strata;
 
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
 import com.goodworkalan.stash.Stash;
 
 /**
@@ -21,6 +24,48 @@ public final class Schema<T> {
     
     /** The number of tiers to keep in memory as dirty before writing. */
     private int maxDirtyTiers;
+
+    /** The count of bytes of tiers to keep in memory as dirty before writing. */
+    private long maxDirtyBytes;
+
+    /** The executor that writes dirty tiers in the background or null. */
+    private Executor writeBackExecutor;
+
+    /** The count of dirty tiers at which inserts and deletes wait for writes. */
+    private int highWatermark;
+
+    /** The maximum count of tiers in the tier pool. */
+    private int poolTierCount;
+
+    /** The maximum count of bytes in the tier pool. */
+    private long poolByteCount;
+
+    /** The policy used to choose tiers to evict from the tier pool. */
+    private EvictionPolicy evictionPolicy = EvictionPolicy.CLOCK;
+
+    /** Whether to cache tiers in soft references. */
+    private boolean softReferences;
+
+    /** The count of levels of inner tiers to keep resident in memory. */
+    private int residentLevels;
+
+    /** Whether to link leaves to their previous leaves. */
+    private boolean reverseLinks;
+
+    /** Whether to count the records in the subtree of each branch. */
+    private boolean counted;
+
+    /** Whether to split tiers with high keys and right links. */
+    private boolean bLink;
+
+    /** The strategy to summarize the records of each branch or null. */
+    private Aggregator<T, ?> aggregator;
+
+    /**
+     * The serializer used by page based storage strategies to read and write
+     * the summaries of branches from and to pages.
+     */
+    private RecordSerializer<?> summarySerializer;
     
     /**
      * The factory to use to create comparables for objects in the b+tree to
@@ -28,6 +73,12 @@ public final class Schema<T> {
      */
     private ComparableFactory<T> comparableFactory;
 
+    /**
+     * The serializer used by page based storage strategies to read and write
+     * records from and to pages.
+     */
+    private RecordSerializer<T> recordSerializer;
+
     /**
      * Set the capacity of branches of an inner tier.
      * 
@@ -88,7 +139,30 @@ public final class Schema<T> {
     }
 
     /**
-     * Set the number of tiers to keep in memory as dirty before writing.
+     * Set the serializer used by page based storage strategies to read and
+     * write records from and to pages.
+     * 
+     * @param recordSerializer
+     *            The record serializer.
+     */
+    public void setRecordSerializer(RecordSerializer<T> recordSerializer) {
+        this.recordSerializer = recordSerializer;
+    }
+
+    /**
+     * Get the serializer used by page based storage strategies to read and
+     * write records from and to pages.
+     * 
+     * @return The record serializer.
+     */
+    public RecordSerializer<T> getRecordSerializer() {
+        return recordSerializer;
+    }
+
+    /**
+     * Set the number of tiers to keep in memory as dirty before writing. The
+     * dirty tiers are shared among the threads that insert and delete, so
+     * caching dirty tiers does not make inserts and deletes exclusive.
      * 
      * @param maxDirtyTiers
      *            The number of tiers to keep in memory as dirty before writing.
@@ -106,6 +180,318 @@ public final class Schema<T> {
         return maxDirtyTiers;
     }
 
+    /**
+     * Set the count of bytes of tiers to keep in memory as dirty before
+     * writing. The size of a tier is the estimate returned by
+     * {@link Tier#getByteSize()}, and a tier whose size is unknown counts as
+     * zero bytes. If the maximum dirty tiers is zero, the dirty tiers are
+     * bounded only by their size in bytes, otherwise they are written when
+     * they exceed either bound.
+     * 
+     * @param maxDirtyBytes
+     *            The count of bytes of tiers to keep in memory as dirty before
+     *            writing or zero for no maximum.
+     */
+    public void setMaxDirtyBytes(long maxDirtyBytes) {
+        this.maxDirtyBytes = maxDirtyBytes;
+    }
+
+    /**
+     * Get the count of bytes of tiers to keep in memory as dirty before
+     * writing.
+     * 
+     * @return The count of bytes of tiers to keep in memory as dirty before
+     *         writing or zero for no maximum.
+     */
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    /**
+     * Set the executor used to write dirty tiers in the background. When the
+     * count of dirty tiers exceeds the maximum dirty tiers, a write of the
+     * dirty tiers is scheduled with the executor instead of performed by the
+     * insert or delete. If the executor is null, the default, the insert or
+     * delete writes the dirty tiers itself.
+     * 
+     * @param writeBackExecutor
+     *            The executor used to write dirty tiers in the background.
+     */
+    public void setWriteBackExecutor(Executor writeBackExecutor) {
+        this.writeBackExecutor = writeBackExecutor;
+    }
+
+    /**
+     * Get the executor used to write dirty tiers in the background.
+     * 
+     * @return The executor used to write dirty tiers in the background.
+     */
+    public Executor getWriteBackExecutor() {
+        return writeBackExecutor;
+    }
+
+    /**
+     * Set the count of dirty tiers above which an insert or delete waits for a
+     * background write to complete and writes the remaining dirty tiers
+     * itself. If the high watermark is zero, the default, the high watermark
+     * is twice the maximum dirty tiers. The high watermark in bytes is always
+     * twice the maximum dirty bytes. The high watermark has no effect unless
+     * there is a write back executor.
+     * 
+     * @param highWatermark
+     *            The count of dirty tiers above which inserts and deletes
+     *            wait for writes.
+     */
+    public void setHighWatermark(int highWatermark) {
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Get the count of dirty tiers above which an insert or delete waits for a
+     * background write to complete.
+     * 
+     * @return The count of dirty tiers above which inserts and deletes wait
+     *         for writes.
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Set the maximum count of tiers to hold in a pool of tiers in front of the
+     * persistent storage strategy. If both the maximum count of tiers and the
+     * maximum count of bytes are zero, there is no tier pool and every tier
+     * is loaded from the persistent storage strategy.
+     * 
+     * @param poolTierCount
+     *            The maximum count of tiers in the tier pool or zero for no
+     *            maximum.
+     */
+    public void setPoolTierCount(int poolTierCount) {
+        this.poolTierCount = poolTierCount;
+    }
+
+    /**
+     * Get the maximum count of tiers to hold in a pool of tiers in front of the
+     * persistent storage strategy.
+     * 
+     * @return The maximum count of tiers in the tier pool or zero for no
+     *         maximum.
+     */
+    public int getPoolTierCount() {
+        return poolTierCount;
+    }
+
+    /**
+     * Set the maximum count of bytes to hold in a pool of tiers in front of the
+     * persistent storage strategy. The size of a tier is the estimate returned
+     * by {@link Tier#getByteSize()}. The tiers of the storage strategy must
+     * report their size, the pool rejects a tier whose size is unknown with an
+     * {@link IllegalStateException}.
+     * 
+     * @param poolByteCount
+     *            The maximum count of bytes in the tier pool or zero for no
+     *            maximum.
+     */
+    public void setPoolByteCount(long poolByteCount) {
+        this.poolByteCount = poolByteCount;
+    }
+
+    /**
+     * Get the maximum count of bytes to hold in a pool of tiers in front of the
+     * persistent storage strategy.
+     * 
+     * @return The maximum count of bytes in the tier pool or zero for no
+     *         maximum.
+     */
+    public long getPoolByteCount() {
+        return poolByteCount;
+    }
+
+    /**
+     * Set the policy used to choose tiers to evict from the tier pool.
+     * 
+     * @param evictionPolicy
+     *            The eviction policy.
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * Get the policy used to choose tiers to evict from the tier pool.
+     * 
+     * @return The eviction policy.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Set whether to cache the tiers loaded from the persistent storage
+     * strategy in soft references, so that tiers stay in memory for as long as
+     * the heap allows. If there is also a tier pool, the soft references are
+     * behind the tier pool and hold the tiers that the pool evicts.
+     * <p>
+     * The soft references of every b+tree are reaped by a single daemon
+     * thread, which is started the first time soft references are used and
+     * runs until the virtual machine exits. It is not stopped when the
+     * b+tree or its storage is closed.
+     * 
+     * @param softReferences
+     *            If true, cache tiers in soft references.
+     */
+    public void setSoftReferences(boolean softReferences) {
+        this.softReferences = softReferences;
+    }
+
+    /**
+     * Get whether to cache the tiers loaded from the persistent storage
+     * strategy in soft references.
+     * 
+     * @return True if tiers are cached in soft references.
+     */
+    public boolean isSoftReferences() {
+        return softReferences;
+    }
+
+    /**
+     * Set the count of levels of inner tiers at the top of the b+tree to keep
+     * resident and pinned in memory, so that loads of the root and the levels
+     * just under the root never reach the persistent storage strategy.
+     * 
+     * @param residentLevels
+     *            The count of levels to keep resident, including the root.
+     */
+    public void setResidentLevels(int residentLevels) {
+        this.residentLevels = residentLevels;
+    }
+
+    /**
+     * Get the count of levels of inner tiers at the top of the b+tree to keep
+     * resident and pinned in memory.
+     * 
+     * @return The count of levels to keep resident, including the root.
+     */
+    public int getResidentLevels() {
+        return residentLevels;
+    }
+
+    /**
+     * Set whether to link leaves to their previous leaves, so that the b+tree
+     * can be iterated in reverse. The tiers of the storage strategy must
+     * implement {@link Tier#getPrevious()} and
+     * {@link Tier#setPrevious(Object)}.
+     * 
+     * @param reverseLinks
+     *            If true, link leaves to their previous leaves.
+     */
+    public void setReverseLinks(boolean reverseLinks) {
+        this.reverseLinks = reverseLinks;
+    }
+
+    /**
+     * Get whether to link leaves to their previous leaves.
+     * 
+     * @return True if leaves are linked to their previous leaves.
+     */
+    public boolean isReverseLinks() {
+        return reverseLinks;
+    }
+
+    /**
+     * Set whether to count the records in the subtree of each branch of the
+     * inner tiers, so that the b+tree can count the records in a range, find
+     * the rank of a record and select a record by rank without visiting
+     * leaves. Counting makes inserts and deletes exclusive. The tiers of the
+     * storage strategy must implement {@link Tier#getCount(int)} and
+     * {@link Tier#setCount(int, long)}.
+     * 
+     * @param counted
+     *            If true, count the records in the subtree of each branch.
+     */
+    public void setCounted(boolean counted) {
+        this.counted = counted;
+    }
+
+    /**
+     * Get whether to count the records in the subtree of each branch.
+     * 
+     * @return True if the records in the subtree of each branch are counted.
+     */
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * Set whether to insert in B-link mode, where a tier that splits is given
+     * a high key and a right link to its new sibling, so that an insert locks
+     * only the tier it splits and the branch to the new sibling is added to
+     * the parent inner tier afterward, while searches that arrive at the tier
+     * in the meantime follow the right link. Inserts in B-link mode no longer
+     * lock the path from the root exclusively, but deletes become exclusive.
+     * B-link mode cannot be combined with counted or summarized branches. The
+     * tiers of the storage strategy must implement {@link Tier#getHighKey()}
+     * and {@link Tier#setHighKey(Object)}.
+     * 
+     * @param bLink
+     *            If true, split tiers with high keys and right links.
+     */
+    public void setBLink(boolean bLink) {
+        this.bLink = bLink;
+    }
+
+    /**
+     * Get whether to split tiers with high keys and right links.
+     * 
+     * @return True if tiers are split with high keys and right links.
+     */
+    public boolean isBLink() {
+        return bLink;
+    }
+
+    /**
+     * Set the strategy to summarize the records in the subtree of each branch
+     * of the inner tiers, so that the b+tree can summarize the records in a
+     * range without visiting the leaves of the subtrees that lie entirely
+     * within the range. Summarizing makes inserts and deletes exclusive. The
+     * tiers of the storage strategy must implement
+     * {@link Tier#getSummary(int)} and {@link Tier#setSummary(int, Object)}.
+     * Page based storage strategies use the given summary serializer to read
+     * and write summaries from and to pages.
+     * 
+     * @param <S>
+     *            The type of summary.
+     * @param aggregator
+     *            The strategy to summarize records or null to not summarize.
+     * @param summarySerializer
+     *            The serializer of summaries for page based storage or null.
+     */
+    public <S> void setAggregator(Aggregator<T, S> aggregator, RecordSerializer<S> summarySerializer) {
+        this.aggregator = aggregator;
+        this.summarySerializer = summarySerializer;
+    }
+
+    /**
+     * Get the strategy to summarize the records in the subtree of each branch
+     * of the inner tiers.
+     * 
+     * @return The strategy to summarize records or null.
+     */
+    public Aggregator<T, ?> getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Get the serializer used by page based storage strategies to read and
+     * write the summaries of branches from and to pages.
+     * 
+     * @return The serializer of summaries or null.
+     */
+    public RecordSerializer<?> getSummarySerializer() {
+        return summarySerializer;
+    }
+
     /**
      * Create a new b+tree with the given storage strategy using the properties
      * of this schema.
@@ -125,6 +511,9 @@ public final class Schema<T> {
         root.setChildLeaf(true);
         
         Tier<T, A> leaf = storage.allocate(true, leafCapacity);
+        if (reverseLinks) {
+            leaf.setPrevious(storage.getNull());
+        }
         
         root.addBranch(0, null, leaf.getAddress());
 
@@ -134,9 +523,40 @@ public final class Schema<T> {
         return root.getAddress();
     }
 
+    /**
+     * Create a new b+tree with the given storage strategy from the given
+     * records, which must be in the order of the b+tree. The b+tree is built
+     * bottom-up, the leaves are packed to the given fill factor and each tier
+     * is written exactly once.
+     * 
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param storage
+     *            The persistent storage strategy.
+     * @param sorted
+     *            The records in b+tree order.
+     * @param fillFactor
+     *            The fraction of the capacity of each tier to fill, greater
+     *            than zero and less than or equal to one.
+     * @return The address of the root inner tier of the new b+tree.
+     * @exception IllegalArgumentException
+     *                If the records are not in b+tree order or if the fill
+     *                factor is out of range.
+     */
+    public <A> A bulkLoad(Stash stash, Storage<T, A> storage, Iterator<T> sorted, double fillFactor) {
+        return new BulkLoader<T, A>(stash, storage, this, fillFactor).load(sorted);
+    }
+
     /**
      * Open an existing b+tree at the given root address with the given
-     * persistent storage strategy.
+     * persistent storage strategy. If the schema caches tiers in soft
+     * references, the storage strategy is placed behind a soft storage. If the
+     * schema has a maximum count of tiers or bytes for a tier pool, the
+     * storage strategy is placed behind a tier pool. If the schema keeps
+     * levels resident, the storage strategy is placed behind a resident
+     * storage.
      * 
      * @param <A>
      *            The address type used to identify an inner or leaf tier.
@@ -147,10 +567,30 @@ public final class Schema<T> {
      * @param storage
      *            The persistent storage strategy.
      * @return The opened b+tree.
+     * @exception IllegalStateException
+     *                If B-link mode is combined with counted or summarized
+     *                branches.
      */
     public <A> Strata<T> open(Stash stash, A rootAddress, Storage<T, A> storage) {
-        Stage<T, A> writer = new Stage<T, A>(storage, maxDirtyTiers);
-        return open(stash, rootAddress, storage, writer);
+        if (bLink && (counted || aggregator != null)) {
+            throw new IllegalStateException();
+        }
+        if (softReferences) {
+            storage = new SoftStorage<T, A>(storage);
+        }
+        TierPool<T, A> pool = null;
+        if (poolTierCount != 0 || poolByteCount != 0) {
+            storage = pool = new TierPool<T, A>(storage, evictionPolicy.<T, A>newEviction(), poolTierCount, poolByteCount);
+        }
+        ResidentStorage<T, A> resident = null;
+        if (residentLevels != 0) {
+            storage = resident = new ResidentStorage<T, A>(storage, residentLevels, pool != null);
+        }
+        Stage<T, A> writer = new Stage<T, A>(storage, maxDirtyTiers, maxDirtyBytes, counted || aggregator != null, writeBackExecutor, highWatermark);
+        if (pool != null) {
+            pool.setStage(writer);
+        }
+        return open(stash, rootAddress, storage, writer, resident, pool != null);
     }
 
     /**
@@ -163,18 +603,19 @@ public final class Schema<T> {
      *            A type-safe container of out of band data.
      * @param rootAddress
      *            The root address of the b+tree root inner tier.
-     * @param allocator
-     *            The tier allocation strategy.
      * @param storage
      *            The persistent storage strategy.
-     * @param pool
-     *            A pool of tiers currently in memory.
      * @param writer
      *            The writer used to stage dirty pages for writing.
+     * @param resident
+     *            The storage that keeps the top levels resident or null.
+     * @param pinned
+     *            Whether the storage returns loaded and allocated tiers
+     *            pinned, because it is backed by a tier pool.
      * @return The opened b+tree.
      */
-    private <A> Strata<T> open(Stash stash, A rootAddress, Storage<T, A> storage, Stage<T, A> writer) {
-        Structure<T, A> structure = new Structure<T, A>(innerCapacity, leafCapacity, storage, writer, comparableFactory);
+    private <A> Strata<T> open(Stash stash, A rootAddress, Storage<T, A> storage, Stage<T, A> writer, ResidentStorage<T, A> resident, boolean pinned) {
+        Structure<T, A> structure = new Structure<T, A>(innerCapacity, leafCapacity, storage, writer, resident, pinned, reverseLinks, counted, aggregator, bLink, comparableFactory);
         return new CoreStrata<T, A>(rootAddress, structure);
     }
 }
\ No newline at end of file
@@ -18,7 +18,8 @@ final class ShouldFillRoot<T, A>
 implements RootDecision<T, A> {
     /**
      * Determine if the root inner tier has only two remaining children and if
-     * those children are going to merge to form a single remaining child.
+     * those children are going to merge to form a single remaining child, or
+     * if one of those children has an only child and may be deleted.
      * 
      * @param mutation
      *            The mutation state container.
@@ -32,10 +33,9 @@ implements RootDecision<T, A> {
     public boolean test(Mutation<T, A> mutation, Level<T, A> rootLevel, Tier<T, A> root) {
         if (!root.isChildLeaf() && root.getSize() == 2) {
             Structure<T, A> structure = mutation.getStructure();
-            Tier<T, A> first = structure.getStorage().load(mutation.getStash(), root.getChildAddress(0));
-            Tier<T, A> second = structure.getStorage().load(mutation.getStash(), root.getChildAddress(1));
-            // FIXME These numbers are off.
-            return first.getSize() + second.getSize() == structure.getInnerSize();
+            Tier<T, A> first = mutation.load(root.getChildAddress(0));
+            Tier<T, A> second = mutation.load(root.getChildAddress(1));
+            return first.getSize() + second.getSize() <= structure.getInnerSize() || first.getSize() == 1 || second.getSize() == 1;
         }
         return false;
     }
@@ -151,12 +151,11 @@ implements Decision<T, A> {
      */
     public boolean test(Mutation<T, A> mutation, Level<T, A> levelOfParent, Level<T, A> levelOfChild, Tier<T, A> parent) {
         Structure<T, A> structure = mutation.getStructure();
-        Storage<T, A> pool = structure.getStorage();
         
         // Find the child tier.
 
-        int branch = parent.find(mutation.getComparable());
-        Tier<T, A> child = pool.load(mutation.getStash(), parent.getChildAddress(branch));
+        int branch = parent.findBranch(mutation.getComparable());
+        Tier<T, A> child = mutation.load(parent.getChildAddress(branch));
 
         // If we are on our way down to remove the last item of a leaf tier that
         // is an only child, then we need to find the leaf to the left of the
@@ -174,12 +173,24 @@ implements Decision<T, A> {
             int index = parent.getIndexOfChildAddress(child.getAddress()) - 1;
             Tier<T, A> inner = parent;
             while (!inner.isChildLeaf()) {
-                inner = pool.load(mutation.getStash(), inner.getChildAddress(index));
+                inner = mutation.load(inner.getChildAddress(index));
                 levelOfParent.lockAndAdd(inner);
                 index = inner.getSize() - 1;
             }
-            Tier<T, A> leaf = pool.load(mutation.getStash(), inner.getChildAddress(index));
+            Tier<T, A> leaf = mutation.load(inner.getChildAddress(index));
             levelOfParent.lockAndAdd(leaf);
+            // The leaf to the left may be followed by a linked list of
+            // duplicate index values, so find the address of the only child
+            // leaf and lock the linked list up to the only child leaf.
+            Tier<T, A> descent = child;
+            while (!descent.isChildLeaf()) {
+                descent = mutation.load(descent.getChildAddress(descent.findBranch(mutation.getComparable())));
+            }
+            A address = descent.getChildAddress(descent.findBranch(mutation.getComparable()));
+            while (!address.equals(leaf.getNext())) {
+                leaf = mutation.load(leaf.getNext());
+                levelOfParent.lockAndAdd(leaf);
+            }
             mutation.setLeftLeaf(leaf);
         }
 
@@ -203,7 +214,7 @@ implements Decision<T, A> {
 
         int index = parent.getIndexOfChildAddress(child.getAddress());
         if (index != 0) {
-            Tier<T, A> left = pool.load(mutation.getStash(), parent.getChildAddress(index - 1));
+            Tier<T, A> left = mutation.load(parent.getChildAddress(index - 1));
             levelOfChild.lockAndAdd(left);
             levelOfChild.lockAndAdd(child);
             if (left.getSize() + child.getSize() <= structure.getInnerSize()) {
@@ -217,9 +228,9 @@ implements Decision<T, A> {
         }
 
         if (listToMerge.isEmpty() && index != parent.getSize() - 1) {
-            Tier<T, A> right = pool.load(mutation.getStash(), parent.getChildAddress(index + 1));
+            Tier<T, A> right = mutation.load(parent.getChildAddress(index + 1));
             levelOfChild.lockAndAdd(right);
-            if ((child.getSize() + right.getSize() - 1) == structure.getInnerSize()) {
+            if (child.getSize() + right.getSize() <= structure.getInnerSize()) {
                 listToMerge.add(child);
                 listToMerge.add(right);
             }
@@ -24,7 +24,7 @@ implements Decision<T, A> {
      *            The child level.
      */
     public boolean test(Mutation<T, A> mutation, Level<T, A> levelOfParent, Level<T, A> levelOfChild, Tier<T, A> parent) {
-        int branch = parent.find(mutation.getComparable());
+        int branch = parent.findBranch(mutation.getComparable());
         T pivot = parent.getRecord(branch);
         if (pivot != null && mutation.getComparable().compareTo(pivot) == 0) {
             levelOfParent.operations.add(new SwapKey<T, A>(parent));
@@ -0,0 +1,173 @@
+package com.goodworkalan.strata;
+
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A storage strategy that caches the tiers of a persistent storage strategy
+ * in soft references, so that tiers stay in memory for as long as the heap
+ * allows and are reclaimed by the garbage collector when memory is needed.
+ * Unlike a tier pool, the soft storage does not need to be sized.
+ * <p>
+ * The soft references are keyed references mapped by tier address. When a
+ * tier is reclaimed, the reaper thread removes its keyed reference from the
+ * map. The reaper is a daemon thread shared by every soft storage, started
+ * the first time a soft storage references a tier and never stopped, so a
+ * soft storage has nothing to close.
+ * <p>
+ * A dirty tier is hard referenced by the stage until it is written and a tier
+ * in use is hard referenced by the mutation levels, so a tier is only
+ * reclaimed when its contents can be loaded again from the persistent
+ * storage.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class SoftStorage<T, A> implements BatchStorage<T, A> {
+    /** The persistent storage strategy. */
+    private final Storage<T, A> storage;
+
+    /** The soft references to tiers by address. */
+    private final ConcurrentMap<A, Reference<Tier<T, A>>> tiers = new ConcurrentHashMap<A, Reference<Tier<T, A>>>();
+
+    /**
+     * Create a soft storage in front of the given persistent storage.
+     * 
+     * @param storage
+     *            The persistent storage strategy.
+     */
+    public SoftStorage(Storage<T, A> storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Create a keyed soft reference to the given tier.
+     * 
+     * @param address
+     *            The address of the tier.
+     * @param tier
+     *            The tier.
+     * @return A keyed soft reference to the tier.
+     */
+    private Reference<Tier<T, A>> reference(A address, Tier<T, A> tier) {
+        return new KeyedReference<A, Tier<T, A>>(address, tier, tiers, Reaper.QUEUE);
+    }
+
+    /**
+     * Allocate a tier from the persistent storage and reference it softly.
+     * 
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @return A new tier.
+     */
+    public Tier<T, A> allocate(boolean leaf, int capacity) {
+        Tier<T, A> tier = storage.allocate(leaf, capacity);
+        tiers.put(tier.getAddress(), reference(tier.getAddress(), tier));
+        return tier;
+    }
+
+    /**
+     * Return the softly referenced tier at the given address, or load the
+     * tier from the persistent storage and reference it softly. If two
+     * threads load the same tier concurrently, the first tier referenced is
+     * returned to both.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     * @return The tier.
+     */
+    public Tier<T, A> load(Stash stash, A address) {
+        Reference<Tier<T, A>> existing = tiers.get(address);
+        Tier<T, A> tier = existing == null ? null : existing.get();
+        if (tier != null) {
+            return tier;
+        }
+        Tier<T, A> loaded = storage.load(stash, address);
+        Reference<Tier<T, A>> reference = reference(address, loaded);
+        for (;;) {
+            existing = tiers.putIfAbsent(address, reference);
+            if (existing == null) {
+                return loaded;
+            }
+            tier = existing.get();
+            if (tier != null) {
+                return tier;
+            }
+            if (tiers.replace(address, existing, reference)) {
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * Write the given tier to the persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tier
+     *            The tier.
+     */
+    public void write(Stash stash, Tier<T, A> tier) {
+        storage.write(stash, tier);
+    }
+
+    /**
+     * Write the given batch of tiers to the persistent storage, as a single
+     * batch if the persistent storage writes batches.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    public void writeBatch(Stash stash, List<Tier<T, A>> tiers) {
+        Stage.writeBatch(storage, stash, tiers);
+    }
+
+    /**
+     * Remove the soft reference to the tier at the given address and free it
+     * in the persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     */
+    public void free(Stash stash, A address) {
+        tiers.remove(address);
+        storage.free(stash, address);
+    }
+
+    /**
+     * Get the null address value of the persistent storage.
+     * 
+     * @return The null address value.
+     */
+    public A getNull() {
+        return storage.getNull();
+    }
+
+    /**
+     * Return true if the given address is the null address value of the
+     * persistent storage.
+     * 
+     * @param address
+     *            A storage address.
+     * @return True if the address is null.
+     */
+    public boolean isNull(A address) {
+        return storage.isNull(address);
+    }
+}
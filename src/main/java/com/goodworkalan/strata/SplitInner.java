@@ -38,6 +38,9 @@ implements Operation<T, A> {
      *            The mutation state container.
      */
     public void operate(Mutation<T, A> mutation) {
+        // Get the collection of the core services of the b+tree.
+        Structure<T, A> structure = mutation.getStructure();
+
         // Create a new right inner tier.
         Tier<T, A> right = mutation.newInnerTier(child.isChildLeaf());
 
@@ -48,6 +51,7 @@ implements Operation<T, A> {
         // the new right inner tier.
         for (int i = partition, stop = child.getSize(); i < stop; i++) {
             right.addBranch(right.getSize(), child.getRecord(i), child.getChildAddress(i));
+            structure.copySummary(child, i, right, right.getSize() - 1);
         }
         child.clear(partition, child.getSize() - partition);
 
@@ -62,8 +66,12 @@ implements Operation<T, A> {
         int index = parent.getIndexOfChildAddress(child.getAddress());
         parent.addBranch(index + 1, pivot, right.getAddress());
 
+        // Count and summarize the records of the branches to the halves.
+        structure.summarize(mutation.getStash(), parent, index);
+        structure.summarize(mutation.getStash(), parent, index + 1);
+
         // Stage the dirty tiers for write.
-        Stage<T, A> stage = mutation.getStructure().getStage();
+        Stage<T, A> stage = structure.getStage();
         stage.dirty(mutation.getStash(), parent);
         stage.dirty(mutation.getStash(), child);
         stage.dirty(mutation.getStash(), right);
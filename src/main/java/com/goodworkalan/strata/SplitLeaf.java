@@ -45,9 +45,54 @@ implements Operation<T, A> {
         Structure<T, A> structure = mutation.getStructure();
 
         // Find the branch that navigates to the leaf child.
-        int branch = inner.find(mutation.getComparable());
-        Tier<T, A> leaf = structure.getStorage().load(mutation.getStash(), inner.getChildAddress(branch));
+        int branch = inner.findBranch(mutation.getComparable());
+        Tier<T, A> leaf = mutation.load(inner.getChildAddress(branch));
 
+        // Find the partition that does not split duplicate index values.
+        int partition = getPartition(mutation, leaf);
+
+        // Create a new tier to the right of the leaf tier.
+        Tier<T, A> right = mutation.newLeafTier();
+        link(mutation, leaf, right);
+
+        // Copy the values at and after the partition into the new right tier.
+        for (int i = partition, stop = leaf.getSize(); i < stop; i++) {
+            right.addRecord(right.getSize(), leaf.getRecord(i));
+        }
+        leaf.clear(partition, leaf.getSize() - partition);
+
+        // Add a branch for the the new leaf in the parent inner tier. 
+        int index = inner.getIndexOfChildAddress(leaf.getAddress());
+        inner.addBranch(index + 1, right.getRecord(0), right.getAddress());
+
+        // Count and summarize the records of the branches to the halves.
+        structure.summarize(mutation.getStash(), inner, index);
+        structure.summarize(mutation.getStash(), inner, index + 1);
+
+        // Stage the dirty tiers for write.
+        Stage<T, A> stage = structure.getStage();
+        stage.dirty(mutation.getStash(), inner);
+        stage.dirty(mutation.getStash(), leaf);
+        stage.dirty(mutation.getStash(), right);
+    }
+
+    /**
+     * Get the index at which to split the given full leaf, the index of the
+     * first record of the new right leaf, so that a string of duplicate index
+     * values is not split between the two leaves. The leaf must contain at
+     * least two distinct index values.
+     * 
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param mutation
+     *            The mutation state container.
+     * @param leaf
+     *            The leaf to split.
+     * @return The index of the first record of the new right leaf.
+     */
+    static <T, A> int getPartition(Mutation<T, A> mutation, Tier<T, A> leaf) {
         // The leaf may contain duplicate index values. We need to make sure
         // that when we split the leaf we do not split a string of duplicate
         // index values. We create a comparator for the middle value and then
@@ -77,26 +122,7 @@ implements Operation<T, A> {
             lesser--;
             greater++;
         }
-
-        // Create a new tier to the right of the leaf tier.
-        Tier<T, A> right = mutation.newLeafTier();
-        link(mutation, leaf, right);
-
-        // Copy the values at and after the partition into the new right tier.
-        for (int i = partition, stop = leaf.getSize(); i < stop; i++) {
-            right.addRecord(right.getSize(), leaf.getRecord(i));
-        }
-        leaf.clear(partition, leaf.getSize() - partition);
-
-        // Add a branch for the the new leaf in the parent inner tier. 
-        int index = inner.getIndexOfChildAddress(leaf.getAddress());
-        inner.addBranch(index + 1, right.getRecord(0), right.getAddress());
-
-        // Stage the dirty tiers for write.
-        Stage<T, A> stage = structure.getStage();
-        stage.dirty(mutation.getStash(), inner);
-        stage.dirty(mutation.getStash(), leaf);
-        stage.dirty(mutation.getStash(), right);
+        return partition;
     }
 
     /**
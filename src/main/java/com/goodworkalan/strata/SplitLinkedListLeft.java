@@ -47,8 +47,8 @@ implements LeafOperation<T, A> {
         Structure<T, A> structure = mutation.getStructure();
 
         // Find the branch that navigates to the leaf child.
-        int branch = inner.find(mutation.getComparable());
-        Tier<T, A> leaf = structure.getStorage().load(mutation.getStash(), inner.getChildAddress(branch));
+        int branch = inner.findBranch(mutation.getComparable());
+        Tier<T, A> leaf = mutation.load(inner.getChildAddress(branch));
 
         // Create a new leaf tier. It goes to the right of the current leaf
         // tier that is going to split left, so we copy the contents of the
@@ -62,19 +62,27 @@ implements LeafOperation<T, A> {
         // Link the new right tier with the copied content to the right.
         link(mutation, leaf, right);
 
-        // Replace the pivot for the leaf tier in the parent tier and add a
-        // pivot for the new leaf tier to the right.
+        // Replace the pivot for the leaf tier in the parent tier, unless it
+        // is the null pivot of the first branch, and add a pivot for the new
+        // leaf tier to the right.
         int index = inner.getIndexOfChildAddress(leaf.getAddress());
-        inner.setRecord(index, mutation.getObject());
+        if (index != 0) {
+            inner.setRecord(index, mutation.getObject());
+        }
         inner.addBranch(index + 1, right.getRecord(0), right.getAddress());
 
+        // The records of the branch to the leaf tier have moved to the new
+        // right tier, so the count and summary of the branch move with them.
+        structure.copySummary(inner, index, inner, index + 1);
+        structure.clearSummary(inner, index);
+
         // Stage the dirty tiers for write.
         Stage<T, A> stage = structure.getStage();
         stage.dirty(mutation.getStash(), inner);
         stage.dirty(mutation.getStash(), leaf);
         stage.dirty(mutation.getStash(), right);
 
-        // Insert the object value.
+        // Insert the object value into the now empty leaf tier.
         return new InsertSorted<T, A>(inner).operate(mutation, leafLevel);
     }
 }
@@ -50,7 +50,7 @@ implements LeafOperation<T, A> {
             return true;
         }
         Stash stash = mutation.getStash();
-        Tier<T, A> next = structure.getStorage().load(stash, leaf.getNext());
+        Tier<T, A> next = mutation.load(leaf.getNext());
         return structure.getComparableFactory().newComparable(stash, leaf.getRecord(0)).compareTo(next.getRecord(0)) != 0;
     }
 
@@ -68,8 +68,8 @@ implements LeafOperation<T, A> {
         Structure<T, A> structure = mutation.getStructure();
 
         // Find the branch that navigates to the leaf child.
-        int branch = inner.find(mutation.getComparable());
-        Tier<T, A> leaf = structure.getStorage().load(mutation.getStash(), inner.getChildAddress(branch));
+        int branch = inner.findBranch(mutation.getComparable());
+        Tier<T, A> leaf = mutation.load(inner.getChildAddress(branch));
 
         // Navigate to the end of the linked list of a linked list of b+tree
         // leaves of duplicate index values.
@@ -91,7 +91,8 @@ implements LeafOperation<T, A> {
         writer.dirty(mutation.getStash(), leaf);
         writer.dirty(mutation.getStash(), right);
 
-        // Insert the object value.
+        // Insert the object value into the new leaf, whose branch has no
+        // records to count or summarize until now.
         return new InsertSorted<T, A>(inner).operate(mutation, leafLevel);
     }
 }
@@ -33,6 +33,9 @@ implements Operation<T, A> {
      *            The mutation state container.
      */
     public void operate(Mutation<T, A> mutation) {
+        // Get the collection of the core services of the b+tree.
+        Structure<T, A> structure = mutation.getStructure();
+
         // Create new left and right inner tiers.
         Tier<T, A> left = mutation.newInnerTier(root.isChildLeaf());
         Tier<T, A> right = mutation.newInnerTier(root.isChildLeaf());
@@ -44,10 +47,12 @@ implements Operation<T, A> {
         int partition = root.getSize() / 2;
         int fullSize = root.getSize();
         for (int i = 0; i < partition; i++) {
-            left.addRecord(left.getSize(), root.getRecord(i));
+            left.addBranch(left.getSize(), root.getRecord(i), root.getChildAddress(i));
+            structure.copySummary(root, i, left, left.getSize() - 1);
         }
         for (int i = partition; i < fullSize; i++) {
-            right.addRecord(right.getSize(), root.getRecord(i));
+            right.addBranch(right.getSize(), root.getRecord(i), root.getChildAddress(i));
+            structure.copySummary(root, i, right, right.getSize() - 1);
         }
         root.clear(0, root.getSize());
 
@@ -65,8 +70,15 @@ implements Operation<T, A> {
         // Set the child type of the root tier to inner.
         root.setChildLeaf(false);
 
+        // Every tier under the root has moved down a level.
+        structure.shift(root, 1);
+
+        // Count and summarize the records of the branches to the halves.
+        structure.summarize(mutation.getStash(), root, 0);
+        structure.summarize(mutation.getStash(), root, 1);
+
         // Stage the dirty tiers for write.
-        Stage<T, A> stage = mutation.getStructure().getStage();
+        Stage<T, A> stage = structure.getStage();
         stage.dirty(mutation.getStash(), root);
         stage.dirty(mutation.getStash(), left);
         stage.dirty(mutation.getStash(), right);
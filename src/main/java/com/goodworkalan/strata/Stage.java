@@ -1,9 +1,18 @@
 package com.goodworkalan.strata;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.goodworkalan.stash.Stash;
@@ -11,6 +20,45 @@ import com.goodworkalan.stash.Stash;
 /**
  * A dirty page cache that writes dirty pages and frees freed pages at the end
  * of a transaction.
+ * <p>
+ * If the maximum dirty tiers is zero, the stage writes through, each insert or
+ * delete writes its dirty tiers when it ends. Otherwise, dirty tiers are held
+ * until their count exceeds the maximum dirty tiers. In either case inserts and
+ * deletes run concurrently, unless the stage was created exclusive, and the
+ * dirty tiers held by the stage are shared by all of the threads that insert
+ * and delete, so that the thread that exceeds the maximum dirty tiers writes
+ * the tiers dirtied by the other threads as well. A delete that removes the
+ * last object of a leaf that is an only child is the exception, it is made
+ * exclusive of other inserts and deletes by {@link #lockExclusive()}.
+ * <p>
+ * The dirty tiers can also be bounded by a maximum count of bytes, since the
+ * size of a tier varies with the size of its records. The size of a tier is
+ * the estimate returned by {@link Tier#getByteSize()} when the tier is marked
+ * dirty, and the sum of the sizes of the dirty tiers is kept as they are
+ * marked dirty and written, so that it can be read at any time. If both the
+ * maximum dirty tiers and the maximum dirty bytes are set, the dirty tiers are
+ * written when they exceed either one.
+ * <p>
+ * The collections of dirty and freed tiers are concurrent. Writes of the dirty
+ * tiers are coordinated by a flush latch, so that only one thread writes the
+ * dirty tiers at a time. A thread that exceeds the maximum dirty tiers while
+ * another thread is writing them does not wait, the tiers it dirtied will be
+ * written by the next flush. A forced flush waits for the latch, as does every
+ * flush of a stage that writes through, so that the tiers dirtied by an insert
+ * or delete are written before it returns. When the
+ * dirty tiers are written, each tier is read locked before it is removed from
+ * the set of dirty tiers and while it is written, so that a tier that is still
+ * being mutated by a concurrent insert or delete is written after the mutation
+ * completes, and so that a tier pool cannot evict a tier whose write is
+ * pending. The dirty tiers are given to the storage as a single batch, so
+ * that the storage can write them in address order.
+ * <p>
+ * A stage can be given an executor to write the dirty tiers in the
+ * background, so that the insert or delete that exceeds the maximum dirty
+ * tiers does not pay for the write. Inserts and deletes wait for the
+ * background write only when the count of staged tiers exceeds a high
+ * watermark. A forced flush always waits until every tier staged before it
+ * was called has been written.
  * 
  * @author Alan Gutierrez
  * 
@@ -22,20 +70,53 @@ import com.goodworkalan.stash.Stash;
 public class Stage<T, A> {
     // FIXME What does it mean when you do not try/catch?
     /** A read/write lock on insert and delete operations. */
-    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    /** The latch that admits one thread at a time to write the dirty tiers. */
+    private final Lock flushLatch = new ReentrantLock();
 
     /** The allocator to use to load pages from disk. */
     private final Storage<T, A> allocator;
 
-    /** A set of dirty tiers. */
-    private final Set<Tier<T, A>> dirtyTiers = new HashSet<Tier<T,A>>();
+    /** A map of dirty tiers to their estimated size in bytes. */
+    private final ConcurrentMap<Tier<T, A>, Integer> dirtyTiers = new ConcurrentHashMap<Tier<T, A>, Integer>();
+
+    /** The sum of the estimated sizes of the dirty tiers in bytes. */
+    private final AtomicLong dirtyBytes = new AtomicLong();
     
     /** A set of tiers to free. */
-    private final Set<Tier<T, A>> freeTiers = new HashSet<Tier<T,A>>();
+    private final Set<Tier<T, A>> freeTiers = Collections.newSetFromMap(new ConcurrentHashMap<Tier<T, A>, Boolean>());
     
     /** The maximum number of dirty tiers to hold in memory. */
     private final int maxDirtyTiers;
 
+    /** The maximum count of bytes of dirty tiers to hold in memory. */
+    private final long maxDirtyBytes;
+
+    /** Whether inserts and deletes are exclusive. */
+    private final boolean exclusive;
+
+    /** The executor that writes dirty tiers in the background or null. */
+    private final Executor executor;
+
+    /**
+     * The count of staged tiers above which an insert or delete waits for the
+     * background write and writes the remaining tiers itself.
+     */
+    private final int highWatermark;
+
+    /**
+     * The count of bytes of dirty tiers above which an insert or delete waits
+     * for the background write and writes the remaining tiers itself.
+     */
+    private final long highWatermarkBytes;
+
+    /** Whether a background write has been scheduled and not yet started. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** The first failure of a background write not yet reported. */
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
     /**
      * Create a new tier writer.
      * 
@@ -45,8 +126,62 @@ public class Stage<T, A> {
      *            The maximum number of dirty tiers to hold in memory.
      */
     public Stage(Storage<T, A> allocator, int maxDirtyTiers) {
+        this(allocator, maxDirtyTiers, false);
+    }
+
+    /**
+     * Create a new tier writer that makes inserts and deletes exclusive if the
+     * given exclusive flag is true.
+     * 
+     * @param allocator
+     *            The allocator to use to load pages from disk.
+     * @param maxDirtyTiers
+     *            The maximum number of dirty tiers to hold in memory.
+     * @param exclusive
+     *            Whether inserts and deletes are always exclusive.
+     */
+    public Stage(Storage<T, A> allocator, int maxDirtyTiers, boolean exclusive) {
+        this(allocator, maxDirtyTiers, 0, exclusive, null, 0);
+    }
+
+    /**
+     * Create a new tier writer that writes its dirty tiers in the background
+     * with the given executor once they exceed the maximum dirty tiers or the
+     * maximum dirty bytes. If the given executor is null, the dirty tiers are
+     * written by the insert or delete that exceeds the maximum. If the given
+     * high watermark is zero, the high watermark is twice the maximum dirty
+     * tiers. The high watermark in bytes is always twice the maximum dirty
+     * bytes.
+     * <p>
+     * If the maximum dirty bytes is not zero and the maximum dirty tiers is
+     * zero, the dirty tiers are bounded only by their size in bytes, as
+     * estimated by {@link Tier#getByteSize()} when the tier is marked dirty.
+     * 
+     * @param allocator
+     *            The allocator to use to load pages from disk.
+     * @param maxDirtyTiers
+     *            The maximum number of dirty tiers to hold in memory.
+     * @param maxDirtyBytes
+     *            The maximum count of bytes of dirty tiers to hold in memory or
+     *            zero for no maximum.
+     * @param exclusive
+     *            Whether inserts and deletes are always exclusive.
+     * @param executor
+     *            The executor that writes dirty tiers in the background or
+     *            null to write them in the insert or delete.
+     * @param highWatermark
+     *            The count of staged tiers above which an insert or delete
+     *            waits for the background write, or zero for twice the
+     *            maximum dirty tiers.
+     */
+    public Stage(Storage<T, A> allocator, int maxDirtyTiers, long maxDirtyBytes, boolean exclusive, Executor executor, int highWatermark) {
         this.allocator = allocator;
         this.maxDirtyTiers = maxDirtyTiers;
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.highWatermarkBytes = maxDirtyBytes * 2;
+        this.exclusive = exclusive;
+        this.executor = executor;
+        this.highWatermark = highWatermark == 0 ? maxDirtyTiers * 2 : highWatermark;
     }
 
     /**
@@ -58,6 +193,53 @@ public class Stage<T, A> {
         return dirtyTiers.size() + freeTiers.size();
     }
 
+    /**
+     * Get the sum of the estimated sizes in bytes of the dirty tiers, as
+     * estimated by {@link Tier#getByteSize()} when each tier was last marked
+     * dirty. A tier whose size is unknown counts as zero bytes.
+     * 
+     * @return The count of bytes of dirty tiers.
+     */
+    public long getDirtyByteCount() {
+        return dirtyBytes.get();
+    }
+
+    /**
+     * Return true if the staged tiers exceed the given count of tiers or the
+     * given count of bytes. The count of tiers is ignored if the stage is
+     * bounded only by bytes, the count of bytes is ignored if the stage is not
+     * bounded by bytes.
+     * 
+     * @param tiers
+     *            The count of staged tiers.
+     * @param bytes
+     *            The count of bytes of dirty tiers.
+     * @return True if the staged tiers exceed either bound.
+     */
+    private boolean exceeds(int tiers, long bytes) {
+        if (maxDirtyBytes != 0 && getDirtyByteCount() > bytes) {
+            return true;
+        }
+        return (maxDirtyBytes == 0 || maxDirtyTiers != 0) && getDirtyTierCount() > tiers;
+    }
+
+    /**
+     * Remove the given tier from the dirty tiers, subtracting its size from
+     * the count of dirty bytes.
+     * 
+     * @param tier
+     *            The tier.
+     * @return True if the tier was dirty.
+     */
+    private boolean clean(Tier<T, A> tier) {
+        Integer size = dirtyTiers.remove(tier);
+        if (size == null) {
+            return false;
+        }
+        dirtyBytes.addAndGet(-size);
+        return true;
+    }
+
     /**
      * Get the lock that locks the b+tree exclusively for insert and update.
      * 
@@ -75,7 +257,45 @@ public class Stage<T, A> {
     }
 
     /**
-     * Lock the b+tree after an insert and delete operation.
+     * Make the insert or delete of the current thread, which has already
+     * called {@link #begin()}, exclusive of all other inserts and deletes
+     * until {@link #unlockExclusive()} is called. The shared locks taken by
+     * begin are released while waiting for the exclusive lock and then taken
+     * again, so the caller must not hold any tier locks. If the current thread
+     * already holds the insert delete lock, nothing is locked and false is
+     * returned.
+     * 
+     * @return True if the exclusive lock was taken and must be released by
+     *         {@link #unlockExclusive()}.
+     */
+    public boolean lockExclusive() {
+        if (readWriteLock.isWriteLockedByCurrentThread()) {
+            return false;
+        }
+        Lock read = readWriteLock.readLock();
+        int holds = readWriteLock.getReadHoldCount();
+        for (int i = 0; i < holds; i++) {
+            read.unlock();
+        }
+        readWriteLock.writeLock().lock();
+        for (int i = 0; i < holds; i++) {
+            read.lock();
+        }
+        return true;
+    }
+
+    /**
+     * Release the exclusive lock taken by {@link #lockExclusive()}, leaving
+     * the shared locks taken by {@link #begin()} held.
+     */
+    public void unlockExclusive() {
+        readWriteLock.writeLock().unlock();
+    }
+
+    /**
+     * Unlock the b+tree after an insert and delete operation. The count of
+     * times that begin locked that end did not unlock is incremented and then
+     * released.
      * 
      * @param count
      *            A reference to the count of times that begin locked that end
@@ -83,11 +303,23 @@ public class Stage<T, A> {
      */
     public void end(int[] count) {
         count[0]++;
-        if (getDirtyTierCount() == 0) {
-            Lock lock = getLock();
-            while (count[0]-- != 0) {
-                lock.unlock();
-            }
+        release(count);
+    }
+
+    /**
+     * Unlock the b+tree for each time that begin locked that end did not
+     * unlock. Dirty tiers are shared among threads, so the b+tree is no longer
+     * held locked until the dirty tiers are written.
+     * 
+     * @param count
+     *            A reference to the count of times that begin locked that end
+     *            did not unlock.
+     */
+    public void release(int[] count) {
+        Lock lock = getLock();
+        while (count[0] != 0) {
+            lock.unlock();
+            count[0]--;
         }
     }
 
@@ -97,12 +329,12 @@ public class Stage<T, A> {
      * @return The lock used to guard the writes.
      */
     private Lock getLock() {
-        return maxDirtyTiers == 0 ? readWriteLock.readLock() : readWriteLock.writeLock();
+        return exclusive ? readWriteLock.writeLock() : readWriteLock.readLock();
     }
 
     /**
      * Mark a tier as dirty. The inner tier will be written by the next call to
-     * {@link #flush(Stash, int[], boolean) flush}.
+     * {@link #flush(Stash, boolean) flush}.
      * 
      * @param stash
      *            A type-safe container of out of band data.
@@ -110,51 +342,224 @@ public class Stage<T, A> {
      *            The tier to mark dirty.
      */
     public void dirty(Stash stash, Tier<T, A> tier) {
-        dirtyTiers.add(tier);
+        int size = tier.getByteSize();
+        Integer previous = dirtyTiers.put(tier, size);
+        dirtyBytes.addAndGet(previous == null ? size : size - previous);
     }
 
     /**
      * Free a tier. The inner tier will be freed by the next call to
-     * {@link #flush(Stash, int[], boolean) flush}.
+     * {@link #flush(Stash, boolean) flush}.
      * 
      * @param stash
      *            A type-safe container of out of band data.
-     * @param leaf
+     * @param tier
      *            The tier to free.
      */
     public void free(Stash stash, Tier<T, A> tier) {
-        dirtyTiers.remove(tier);
+        clean(tier);
         freeTiers.add(tier);
     }
 
+    /**
+     * Free a batch of tiers. The tiers will be freed by the next call to
+     * {@link #flush(Stash, boolean) flush}.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param tiers
+     *            The tiers to free.
+     */
+    public void free(Stash stash, Collection<Tier<T, A>> tiers) {
+        for (Tier<T, A> tier : tiers) {
+            clean(tier);
+        }
+        freeTiers.addAll(tiers);
+    }
+
+    /**
+     * Write the given tier if it is dirty and remove it from the set of dirty
+     * tiers. This is used by a tier pool to write back a dirty tier that it
+     * evicts. The caller must hold a lock on the tier.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param tier
+     *            The tier to write if dirty.
+     */
+    public void write(Stash stash, Tier<T, A> tier) {
+        if (clean(tier)) {
+            allocator.write(stash, tier);
+        }
+    }
+
     /**
      * Write the dirty pages and free the freed pages if this writer holds more
-     * tiers than the maximum dirty tiers or if the given force flag is true.
+     * tiers than the maximum dirty tiers, more bytes of dirty tiers than the
+     * maximum dirty bytes, or if the given force flag is true. The dirty and
+     * freed tiers are removed from the stage.
+     * <p>
+     * If another thread is writing the dirty tiers, an unforced flush returns
+     * immediately and a forced flush waits for the other thread, then writes
+     * the tiers that remain, so that every tier dirtied before a forced flush
+     * is written when it returns. If the stage writes through, because neither
+     * the maximum dirty tiers nor the maximum dirty bytes is set, an unforced
+     * flush waits as well.
+     * <p>
+     * If the stage has an executor, an unforced flush schedules a background
+     * write and returns immediately, unless the staged tiers exceed the high
+     * watermark. Then the flush waits for the background write in
+     * progress and writes the remaining tiers itself, so that inserts and
+     * deletes cannot stage tiers faster than they are written. A background
+     * write uses the stash of the flush that scheduled it. A failure of a
+     * background write is reported by the next forced flush.
      * 
      * @param stash
      *            A type-safe container of out of band data.
-     * @param count
-     *            A reference to the count of time that begin locked that end
-     *            did not unlock.
      * @param force
      *            Flush the tier writer regardless of its max dirty tiers
      *            property.
+     * @exception StrataException
+     *                If the flush is forced and a background write failed.
      */
-    public void flush(Stash stash, int[] count, boolean force) {
-        if (maxDirtyTiers != 0) {
-            readWriteLock.writeLock().lock();
-            if (force || maxDirtyTiers < getDirtyTierCount()) {
-                for (Tier<T, A> inner : dirtyTiers) {
-                    allocator.write(stash, inner);
+    public void flush(Stash stash, boolean force) {
+        if (force) {
+            flushLatch.lock();
+        } else {
+            if (!exceeds(maxDirtyTiers, maxDirtyBytes)) {
+                return;
+            }
+            if (executor == null) {
+                if (maxDirtyTiers == 0 && maxDirtyBytes == 0) {
+                    flushLatch.lock();
+                } else if (!flushLatch.tryLock()) {
+                    return;
                 }
-                for (Tier<T, A> inner : freeTiers) {
-                    allocator.free(stash, inner.getAddress());
+            } else if (!exceeds(highWatermark, highWatermarkBytes)) {
+                schedule(stash);
+                return;
+            } else {
+                flushLatch.lock();
+            }
+        }
+        try {
+            write(stash);
+        } finally {
+            flushLatch.unlock();
+        }
+        if (force) {
+            RuntimeException e = failure.getAndSet(null);
+            if (e != null) {
+                throw new StrataException("Unable to write dirty tiers in the background.", e);
+            }
+        }
+    }
+
+    /**
+     * Schedule a background write of the dirty tiers with the executor, if
+     * one is not already scheduled. The scheduled flag is cleared when the
+     * background write starts, so that tiers dirtied while it writes schedule
+     * another background write.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     */
+    private void schedule(final Stash stash) {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    scheduled.set(false);
+                    flushLatch.lock();
+                    try {
+                        write(stash);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        flushLatch.unlock();
+                    }
                 }
-                while (count[0]-- != 0) {
-                    readWriteLock.writeLock().unlock();
+            });
+        }
+    }
+
+    /**
+     * Write the dirty pages and free the freed pages. The caller must hold the
+     * flush latch.
+     * <p>
+     * The dirty tiers that can be read locked without waiting are written
+     * together as a single batch, so that the storage can order the writes by
+     * address and coalesce them. The read locks are held until the batch is
+     * written. A tier that is write locked by an insert or delete is written
+     * after the batch, as a batch of its own, once its read lock can be
+     * obtained, so that the flush never waits on a tier lock while it holds
+     * the read lock of another tier.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     */
+    private void write(Stash stash) {
+        List<Tier<T, A>> free = new ArrayList<Tier<T, A>>(freeTiers);
+        freeTiers.removeAll(free);
+        List<Tier<T, A>> batch = new ArrayList<Tier<T, A>>();
+        List<Tier<T, A>> busy = new ArrayList<Tier<T, A>>();
+        try {
+            for (Tier<T, A> tier : new ArrayList<Tier<T, A>>(dirtyTiers.keySet())) {
+                Lock lock = tier.readWriteLock.readLock();
+                if (!lock.tryLock()) {
+                    busy.add(tier);
+                } else if (clean(tier)) {
+                    batch.add(tier);
+                } else {
+                    lock.unlock();
                 }
             }
-            readWriteLock.writeLock().unlock();
+            if (!batch.isEmpty()) {
+                writeBatch(allocator, stash, batch);
+            }
+        } finally {
+            for (Tier<T, A> tier : batch) {
+                tier.readWriteLock.readLock().unlock();
+            }
+        }
+        for (Tier<T, A> tier : busy) {
+            Lock lock = tier.readWriteLock.readLock();
+            lock.lock();
+            try {
+                if (clean(tier)) {
+                    writeBatch(allocator, stash, Collections.singletonList(tier));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (Tier<T, A> tier : free) {
+            allocator.free(stash, tier.getAddress());
+        }
+    }
+
+    /**
+     * Write the given batch of tiers to the given storage with a single call
+     * if the storage is a {@link BatchStorage}, otherwise write the tiers one
+     * at a time.
+     * 
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param storage
+     *            The storage.
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    static <T, A> void writeBatch(Storage<T, A> storage, Stash stash, List<Tier<T, A>> tiers) {
+        if (storage instanceof BatchStorage) {
+            ((BatchStorage<T, A>) storage).writeBatch(stash, tiers);
+        } else {
+            for (Tier<T, A> tier : tiers) {
+                storage.write(stash, tier);
+            }
         }
     }
 }
@@ -0,0 +1,34 @@
+package com.goodworkalan.strata;
+
+/**
+ * An exception raised when a persistent storage strategy shipped with Strata
+ * encounters an I/O error or a file that it cannot read.
+ *
+ * @author Alan Gutierrez
+ */
+public class StrataException extends RuntimeException {
+    /** The serial version id. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create an exception with the given message.
+     *
+     * @param message
+     *            The exception message.
+     */
+    public StrataException(String message) {
+        super(message);
+    }
+
+    /**
+     * Create an exception with the given message and cause.
+     *
+     * @param message
+     *            The exception message.
+     * @param cause
+     *            The cause.
+     */
+    public StrataException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
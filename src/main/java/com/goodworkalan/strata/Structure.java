@@ -1,5 +1,7 @@
 package com.goodworkalan.strata;
 
+import com.goodworkalan.stash.Stash;
+
 /**
  * The collection of the core services of the b+tree.
  * 
@@ -22,6 +24,24 @@ class Structure<T, A> {
 
     /** The writer used to stage dirty pages for writing. */
     private final Stage<T, A> stage;
+
+    /** The storage that keeps the top levels resident or null. */
+    private final ResidentStorage<T, A> resident;
+
+    /** Whether the storage returns loaded and allocated tiers pinned. */
+    private final boolean pinned;
+
+    /** Whether leaves are linked to their previous leaves. */
+    private final boolean reverseLinked;
+
+    /** Whether the records in the subtree of each branch are counted. */
+    private final boolean counted;
+
+    /** The strategy to summarize the records of each branch or null. */
+    private final Aggregator<T, Object> aggregator;
+
+    /** Whether tiers are split with high keys and right links. */
+    private final boolean bLink;
     
     /**
      * The factory to use to create comparables for objects in the b+tree to
@@ -38,22 +58,57 @@ class Structure<T, A> {
      *            The capacity of object values of a leaf tier.
      * @param storage
      *            The persistent storage strategy.
-     * @param tierPool
-     *            A pool of tiers currently in memory.
      * @param tierWriter
      *            The writer used to stage dirty pages for writing.
+     * @param resident
+     *            The storage that keeps the top levels resident or null if no
+     *            levels are kept resident.
+     * @param pinned
+     *            Whether the storage returns loaded and allocated tiers
+     *            pinned, because it is backed by a tier pool.
+     * @param reverseLinked
+     *            Whether leaves are linked to their previous leaves.
+     * @param counted
+     *            Whether the records in the subtree of each branch are
+     *            counted.
+     * @param aggregator
+     *            The strategy to summarize the records in the subtree of each
+     *            branch or null.
+     * @param bLink
+     *            Whether tiers are split with high keys and right links.
      * @param comparableFactory
      *            The factory to use to create comparables for objects in the
      *            b+tree to compare against other object in the b+tree.
      */
-    public Structure(int innerCapacity, int leafCapacity, Storage<T, A> storage, Stage<T, A> tierWriter, ComparableFactory<T> comparableFactory) {
+    public Structure(int innerCapacity, int leafCapacity, Storage<T, A> storage, Stage<T, A> tierWriter, ResidentStorage<T, A> resident, boolean pinned, boolean reverseLinked, boolean counted, Aggregator<T, ?> aggregator, boolean bLink, ComparableFactory<T> comparableFactory) {
         this.innerCapacity = innerCapacity;
         this.leafCapacity = leafCapacity;
         this.storage = storage;
         this.stage = tierWriter;
+        this.resident = resident;
+        this.pinned = pinned;
+        this.reverseLinked = reverseLinked;
+        this.counted = counted;
+        this.aggregator = cast(aggregator);
+        this.bLink = bLink;
         this.comparableFactory = comparableFactory;
     }
 
+    /**
+     * Cast the given aggregator to an aggregator of summaries of any type,
+     * since the summaries are stored in tiers as objects.
+     * 
+     * @param <T>
+     *            The value type of the indexed objects.
+     * @param aggregator
+     *            The aggregator or null.
+     * @return The aggregator of summaries of any type or null.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Aggregator<T, Object> cast(Aggregator<T, ?> aggregator) {
+        return (Aggregator<T, Object>) aggregator;
+    }
+
     /**
      * Get the capacity of branches of an inner tier.
      * 
@@ -90,6 +145,280 @@ class Structure<T, A> {
         return stage;
     }
 
+    /**
+     * Keep the given inner tier resident in memory if the given depth is one
+     * of the levels that the schema keeps resident, where the root is at depth
+     * zero. Descents of the b+tree call this method for each inner tier they
+     * visit.
+     * 
+     * @param tier
+     *            The inner tier.
+     * @param depth
+     *            The depth of the tier.
+     */
+    public void reside(Tier<T, A> tier, int depth) {
+        if (resident != null) {
+            resident.reside(tier, depth);
+        }
+    }
+
+    /**
+     * Shift the depth of the resident tiers other than the given root by the
+     * given count of levels, when the root splits or is filled in place, so
+     * that tiers that move below the levels that the schema keeps resident
+     * are released.
+     * 
+     * @param root
+     *            The root inner tier.
+     * @param count
+     *            The count of levels that the tiers under the root move down.
+     */
+    public void shift(Tier<T, A> root, int count) {
+        if (resident != null) {
+            resident.shift(root.getAddress(), count);
+        }
+    }
+
+    /**
+     * Pin the given tier the way the storage pins the tiers it loads, if the
+     * storage is backed by a tier pool, for a tier that is obtained without a
+     * load. The tier must already be pinned, so that it cannot be claimed for
+     * eviction.
+     * 
+     * @param tier
+     *            The pinned tier.
+     */
+    public void pin(Tier<T, A> tier) {
+        if (pinned) {
+            tier.pin();
+        }
+    }
+
+    /**
+     * Release the pin that the storage placed on the given tier when it was
+     * loaded or allocated, if the storage is backed by a tier pool. Callers
+     * unpin a tier once they hold its lock, which keeps it from being evicted
+     * until the lock is released, or once they are done with a tier that they
+     * do not lock.
+     * 
+     * @param tier
+     *            The tier returned by a load or an allocation.
+     */
+    public void unpin(Tier<T, A> tier) {
+        if (pinned) {
+            tier.unpin();
+        }
+    }
+
+    /**
+     * Get whether leaves are linked to their previous leaves, so that the
+     * previous leaf links must be maintained when leaves are linked and
+     * unlinked.
+     * 
+     * @return True if leaves are linked to their previous leaves.
+     */
+    public boolean isReverseLinked() {
+        return reverseLinked;
+    }
+
+    /**
+     * Get whether the records in the subtree of each branch of the inner tiers
+     * are counted.
+     * 
+     * @return True if the records in the subtree of each branch are counted.
+     */
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * Get the strategy to summarize the records in the subtree of each branch
+     * of the inner tiers.
+     * 
+     * @return The strategy to summarize records or null.
+     */
+    public Aggregator<T, Object> getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Get whether the branches of the inner tiers are counted or summarized,
+     * so that inserts and deletes must update the branches of the path to the
+     * leaf that they change.
+     * 
+     * @return True if the branches are counted or summarized.
+     */
+    public boolean isSummarized() {
+        return counted || aggregator != null;
+    }
+
+    /**
+     * Copy the count and summary of the branch at the given index of the given
+     * source inner tier to the branch at the given index of the given
+     * destination inner tier, if branches are counted or summarized.
+     * Operations that move branches from one inner tier to another call this
+     * method for each branch moved.
+     * 
+     * @param from
+     *            The source inner tier.
+     * @param fromIndex
+     *            The index of the branch in the source inner tier.
+     * @param to
+     *            The destination inner tier.
+     * @param toIndex
+     *            The index of the branch in the destination inner tier.
+     */
+    public void copySummary(Tier<T, A> from, int fromIndex, Tier<T, A> to, int toIndex) {
+        if (counted) {
+            to.setCount(toIndex, from.getCount(fromIndex));
+        }
+        if (aggregator != null) {
+            to.setSummary(toIndex, from.getSummary(fromIndex));
+        }
+    }
+
+    /**
+     * Combine the given summaries, either of which may be null to indicate a
+     * run of no records.
+     * 
+     * @param left
+     *            The summary of the lesser records or null.
+     * @param right
+     *            The summary of the greater records or null.
+     * @return The summary of both runs of records or null.
+     */
+    public Object combine(Object left, Object right) {
+        return combine(aggregator, left, right);
+    }
+
+    /**
+     * Combine the given summaries with the given aggregator, either of which
+     * may be null to indicate a run of no records.
+     * 
+     * @param <T>
+     *            The value type of the indexed objects.
+     * @param aggregator
+     *            The aggregator.
+     * @param left
+     *            The summary of the lesser records or null.
+     * @param right
+     *            The summary of the greater records or null.
+     * @return The summary of both runs of records or null.
+     */
+    static <T> Object combine(Aggregator<T, Object> aggregator, Object left, Object right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        return aggregator.combine(left, right);
+    }
+
+    /**
+     * Set the count and summary of the branch at the given index of the given
+     * inner tier to those of a subtree with no records, if branches are
+     * counted or summarized.
+     * 
+     * @param inner
+     *            The inner tier.
+     * @param index
+     *            The index of the branch.
+     */
+    public void clearSummary(Tier<T, A> inner, int index) {
+        if (counted) {
+            inner.setCount(index, 0);
+        }
+        if (aggregator != null) {
+            inner.setSummary(index, null);
+        }
+    }
+
+    /**
+     * Count and summarize the records in the subtree of the branch at the
+     * given index of the given inner tier and set the count and summary of the
+     * branch, if branches are counted or summarized. The count and summary of
+     * a branch that references an inner tier combine the counts and summaries
+     * of the branches of the inner tier. The count and summary of a branch
+     * that references a leaf are taken from the records of the leaf and of the
+     * linked list of duplicate index values that follows the leaf, the
+     * subsequent leaves that begin with the last record of the leaf before
+     * them.
+     * <p>
+     * The inner tier must be write locked by the caller. Each tier read is
+     * pinned and read locked while it is read, the leaves of a linked list of
+     * duplicate index values are locked hand over hand. The caller may
+     * already hold the write lock of a tier read.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param inner
+     *            The inner tier.
+     * @param index
+     *            The index of the branch.
+     */
+    public void summarize(Stash stash, Tier<T, A> inner, int index) {
+        if (isSummarized()) {
+            Tier<T, A> child = storage.load(stash, inner.getChildAddress(index));
+            child.readWriteLock.readLock().lock();
+            long count = 0;
+            Object summary = null;
+            try {
+                if (inner.isChildLeaf()) {
+                    for (;;) {
+                        count += child.getSize();
+                        if (aggregator != null) {
+                            for (int i = 0, stop = child.getSize(); i < stop; i++) {
+                                summary = combine(summary, aggregator.summarize(child.getRecord(i)));
+                            }
+                        }
+                        if (child.getSize() == 0 || storage.isNull(child.getNext())) {
+                            break;
+                        }
+                        Comparable<? super T> last = comparableFactory.newComparable(stash, child.getRecord(child.getSize() - 1));
+                        Tier<T, A> next = storage.load(stash, child.getNext());
+                        next.readWriteLock.readLock().lock();
+                        child.readWriteLock.readLock().unlock();
+                        unpin(child);
+                        child = next;
+                        if (child.getSize() == 0 || last.compareTo(child.getRecord(0)) != 0) {
+                            break;
+                        }
+                    }
+                } else {
+                    for (int i = 0, stop = child.getSize(); i < stop; i++) {
+                        if (counted) {
+                            count += child.getCount(i);
+                        }
+                        if (aggregator != null) {
+                            summary = combine(summary, child.getSummary(i));
+                        }
+                    }
+                }
+            } finally {
+                child.readWriteLock.readLock().unlock();
+                unpin(child);
+            }
+            if (counted) {
+                inner.setCount(index, count);
+            }
+            if (aggregator != null) {
+                inner.setSummary(index, summary);
+            }
+        }
+    }
+
+    /**
+     * Get whether tiers are split with high keys and right links, so that
+     * searches must follow the right link of a tier whose high key is less
+     * than or equal to the record sought.
+     * 
+     * @return True if tiers are split with high keys and right links.
+     */
+    public boolean isBLink() {
+        return bLink;
+    }
+
     /**
      * Get the factory to use to create comparables for objects in the b+tree to
      * compare against other object in the b+tree.
@@ -111,6 +440,10 @@ class Structure<T, A> {
         schema.setInnerCapacity(getInnerSize());
         schema.setLeafCapacity(getLeafSize());
         schema.setComparableFactory(getComparableFactory());
+        schema.setReverseLinks(isReverseLinked());
+        schema.setCounted(isCounted());
+        schema.setAggregator(getAggregator(), null);
+        schema.setBLink(isBLink());
         return schema;
     }
 }
\ No newline at end of file
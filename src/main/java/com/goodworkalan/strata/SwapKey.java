@@ -13,7 +13,7 @@ final class SwapKey<T, A> implements Operation<T, A> {
     // TODO Document.
     public void operate(Mutation<T, A> mutation) {
         if (mutation.getReplacement() != null) {
-            int branch = inner.find(mutation.getComparable());
+            int branch = inner.findBranch(mutation.getComparable());
             inner.setRecord(branch, mutation.getReplacement());
             mutation.getStructure().getStage().dirty(mutation.getStash(), inner);
         }
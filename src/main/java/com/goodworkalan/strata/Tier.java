@@ -1,7 +1,7 @@
 package com.goodworkalan.strata;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Read and write a tiers.
@@ -9,12 +9,59 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * @author Alan Gutierrez
  */
 public abstract class Tier<Record, Address> {
+    /**
+     * The read write lock that also stamps the version of the underlying data
+     * for optimistic readers.
+     */
+    private final VersionedReadWriteLock versionedLock = new VersionedReadWriteLock();
+
     /**
      * The read write lock for the underlying data. This is here, because we are
      * really locking the underlying data.
      */
-    public final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    
+    public final ReadWriteLock readWriteLock = versionedLock;
+
+    /**
+     * The count of mutation levels that hold this tier, a tier with a non-zero
+     * pin count will not be evicted from a tier pool. A pin count of negative
+     * one marks a tier claimed for eviction by a tier pool.
+     */
+    private final AtomicInteger pinCount = new AtomicInteger();
+
+    /** Whether the tier has been returned by a tier pool since it was last asked. */
+    private volatile boolean accessed;
+
+    /**
+     * Get a stamp of the current version of the tier to validate after an
+     * optimistic read of the tier, or zero if the tier is write locked.
+     * 
+     * @return A stamp of the current version or zero.
+     */
+    long tryOptimisticRead() {
+        return versionedLock.tryOptimisticRead();
+    }
+
+    /**
+     * Return true if the tier has not been write locked since the given stamp
+     * was issued, so that the tier read since then is consistent.
+     * 
+     * @param stamp
+     *            A stamp issued by {@link #tryOptimisticRead()}.
+     * @return True if the tier read since the stamp was issued is consistent.
+     */
+    boolean validate(long stamp) {
+        return versionedLock.validate(stamp);
+    }
+
+    /**
+     * Return true if the write lock of the tier is held by the current thread.
+     *
+     * @return True if the write lock is held by the current thread.
+     */
+    boolean isWriteLockedByCurrentThread() {
+        return versionedLock.isWriteLockedByCurrentThread();
+    }
+
     /**
      * Get the address of this tier.
      * 
@@ -54,6 +101,131 @@ public abstract class Tier<Record, Address> {
      */
     public abstract void setNext(Address next);
     
+    /**
+     * Get address of the previous leaf in the b-tree or null if this is the
+     * first leaf in the b-tree. Previous leaf links are optional, they are
+     * maintained only if the schema of the b-tree enables reverse links. The
+     * default implementation throws an exception.
+     * 
+     * @return The address of the previous leaf or null.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store a previous leaf link.
+     */
+    public Address getPrevious() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set the address the previous leaf in the b-tree. The default
+     * implementation throws an exception.
+     * 
+     * @param previous
+     *            The address of the previous leaf or null if this is the first
+     *            leaf in the b-tree.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store a previous leaf link.
+     */
+    public void setPrevious(Address previous) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the high key of the tier, the least record that no longer belongs
+     * to the tier because the tier has split and the branch to its new right
+     * sibling has not yet been added to the parent inner tier, or null if
+     * there is no such split. A search for a record greater than or equal to
+     * the high key follows the next link to the right. High keys are optional,
+     * they are maintained only if the schema of the b-tree enables B-link
+     * mode. The default implementation throws an exception.
+     *
+     * @return The high key or null.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store a high key.
+     */
+    public Record getHighKey() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set the high key of the tier, or null when the branch to the right
+     * sibling of the tier has been added to the parent inner tier. The default
+     * implementation throws an exception.
+     *
+     * @param highKey
+     *            The high key or null.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store a high key.
+     */
+    public void setHighKey(Record highKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the count of records in the subtree of the branch at the given
+     * index of an inner tier. Branch counts are optional, they are maintained
+     * only if the schema of the b-tree enables counted mode. The default
+     * implementation throws an exception.
+     * 
+     * @param index
+     *            The index of the branch.
+     * @return The count of records in the subtree of the branch.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store branch counts.
+     */
+    public long getCount(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set the count of records in the subtree of the branch at the given
+     * index of an inner tier. A branch that is added has a count of zero. The
+     * default implementation throws an exception.
+     * 
+     * @param index
+     *            The index of the branch.
+     * @param count
+     *            The count of records in the subtree of the branch.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store branch counts.
+     */
+    public void setCount(int index, long count) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Get the summary of the records in the subtree of the branch at the
+     * given index of an inner tier. Branch summaries are optional, they are
+     * maintained only if the schema of the b-tree has an aggregator. The
+     * default implementation throws an exception.
+     * 
+     * @param index
+     *            The index of the branch.
+     * @return The summary of the records in the subtree of the branch or null
+     *         if the subtree has no records.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store branch summaries.
+     */
+    public Object getSummary(int index) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set the summary of the records in the subtree of the branch at the
+     * given index of an inner tier. A branch that is added has a null summary.
+     * The default implementation throws an exception.
+     * 
+     * @param index
+     *            The index of the branch.
+     * @param summary
+     *            The summary of the records in the subtree of the branch or
+     *            null if the subtree has no records.
+     * @exception UnsupportedOperationException
+     *                If the tier does not store branch summaries.
+     */
+    public void setSummary(int index, Object summary) {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Read a record from the tier cassette.
      * 
@@ -106,6 +278,128 @@ public abstract class Tier<Record, Address> {
     public abstract void clear(int start, int count);
     
     
+    /**
+     * Get an estimate of the size of the tier in memory in bytes. The size is
+     * used by a tier pool that is bounded by a count of bytes. The default
+     * implementation returns zero, meaning that the size is unknown.
+     * 
+     * @return An estimate of the size of the tier in bytes or zero if the size
+     *         is unknown.
+     */
+    public int getByteSize() {
+        return 0;
+    }
+
+    /**
+     * Increment the pin count of the tier. A pinned tier will not be evicted
+     * from a tier pool. The tier must already be pinned or locked by the
+     * caller, so that it cannot be claimed for eviction.
+     */
+    public void pin() {
+        pinCount.incrementAndGet();
+    }
+
+    /**
+     * Decrement the pin count of the tier.
+     */
+    public void unpin() {
+        pinCount.decrementAndGet();
+    }
+
+    /**
+     * Get whether the tier is pinned by a mutation.
+     *
+     * @return True if the pin count of the tier is greater than zero.
+     */
+    public boolean isPinned() {
+        return pinCount.get() > 0;
+    }
+
+    /**
+     * Increment the pin count of the tier unless the tier has been claimed for
+     * eviction.
+     *
+     * @return True if the tier was pinned, false if it is claimed for eviction.
+     */
+    boolean tryPin() {
+        for (;;) {
+            int count = pinCount.get();
+            if (count < 0) {
+                return false;
+            }
+            if (pinCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Pin the tier, taking it back from eviction if it has been claimed for
+     * eviction. Called by a tier pool while the pool is locked.
+     */
+    void reclaim() {
+        for (;;) {
+            int count = pinCount.get();
+            if (pinCount.compareAndSet(count, count < 0 ? 1 : count + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claim the tier for eviction if it is not pinned. A claimed tier cannot
+     * be pinned by {@link #tryPin()}.
+     *
+     * @return True if the tier was claimed.
+     */
+    boolean claim() {
+        return pinCount.compareAndSet(0, -1);
+    }
+
+    /**
+     * Return a tier claimed for eviction to use, if it is still claimed.
+     *
+     * @return True if the tier was still claimed.
+     */
+    boolean unclaim() {
+        return pinCount.compareAndSet(-1, 0);
+    }
+
+    /**
+     * Get whether the tier is claimed for eviction.
+     *
+     * @return True if the tier is claimed for eviction.
+     */
+    boolean isClaimed() {
+        return pinCount.get() < 0;
+    }
+
+    /**
+     * Record that the tier has been returned by a tier pool. The flag is read
+     * before it is written, so that the hot inner tiers are not written on
+     * every descent.
+     */
+    void access() {
+        if (!accessed) {
+            accessed = true;
+        }
+    }
+
+    /**
+     * Clear and return the flag that records that the tier has been returned
+     * by a tier pool.
+     *
+     * @return True if the tier has been returned since the flag was last
+     *         cleared.
+     */
+    boolean clearAccessed() {
+        if (accessed) {
+            accessed = false;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Get the index of the branch with the given child tier address.
      * 
@@ -126,7 +420,9 @@ public abstract class Tier<Record, Address> {
     /**
      * Get the index of the first value object for the given comparable
      * representing the value according to the b-tree order. If there is no such
-     * object in the leaf, return the index of the insert location.
+     * object in the leaf, return the index of the insert location. The tier
+     * must be a leaf, a leaf may contain null records and they are compared
+     * like any other record.
      * 
      * @param comparable
      *            The comparable representing the value to find.
@@ -134,22 +430,40 @@ public abstract class Tier<Record, Address> {
      *         value object.
      */
     public int find(Comparable<? super Record> comparable) {
-        int low = 1;
-        int high = getSize() - 1;
+        int low = 0;
+        int high = getSize();
         while (low < high) {
             int mid = (low + high) >>> 1;
-            int compare = comparable.compareTo(getRecord(mid));
-            if (compare > 0) {
+            if (comparable.compareTo(getRecord(mid)) > 0) {
                 low = mid + 1;
             } else {
                 high = mid;
             }
         }
-        if (low < getSize()) {
-            while (low != 0 && comparable.compareTo(getRecord(low - 1)) == 0) {
-                low--;
+        return low;
+    }
+
+    /**
+     * Get the index of the branch that navigates to the child that contains
+     * the value represented by the given comparable, which is the last branch
+     * whose pivot is less than or equal to the given comparable. The tier must
+     * be an inner tier, the pivot of its first branch is null and is not
+     * compared.
+     * 
+     * @param comparable
+     *            The comparable representing the value to find.
+     * @return The index of the branch.
+     */
+    public int findBranch(Comparable<? super Record> comparable) {
+        int low = 1;
+        int high = getSize();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparable.compareTo(getRecord(mid)) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-            return low;
         }
         return low - 1;
     }
@@ -0,0 +1,409 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * A bounded pool of tiers in front of a persistent storage strategy, so that
+ * the hot inner tiers of the b+tree are loaded once and then returned from
+ * memory on each descent. The pool is bounded by a count of tiers, by a count
+ * of bytes as estimated by {@link Tier#getByteSize()} when the tier enters the
+ * pool, or both. A pool bounded by bytes requires tiers that report their
+ * size, a tier whose size is unknown is rejected, since it would not count
+ * against the bound.
+ * <p>
+ * A tier returned by a load or an allocation is pinned, so that it cannot be
+ * evicted before the caller locks it. The caller unpins the tier by calling
+ * {@link Structure#unpin(Tier)} once it holds the lock of the tier, which
+ * protects the tier from eviction until it is released, or once it is done
+ * with the tier if it does not lock it.
+ * <p>
+ * When a load admits a tier that puts the pool over its bounds, the pool
+ * evicts tiers chosen by its eviction strategy. A tier that is pinned, or
+ * that is locked by any thread, including the evicting thread, is not
+ * evicted. A dirty tier is written back through the stage before it is
+ * evicted, so that the next load of the tier reads its current state. The
+ * victims are write locked and claimed while the pool is locked, but they are
+ * written after the pool is unlocked, so that loads of other tiers do not
+ * wait on the write. A victim that is loaded again while it is written is
+ * taken back by that load and stays in the pool. The pool can exceed its
+ * bounds when every tier it holds is in use.
+ * <p>
+ * A load that finds its tier in the pool does not lock the pool. It pins the
+ * tier with a compare and set that fails only if the tier has been claimed
+ * for eviction, and it records the access in a flag on the tier rather than
+ * in the eviction strategy. The eviction strategy learns of the access when
+ * it next offers the tier as a victim, and the tier is given another turn
+ * instead. The tier is pinned before it is checked against the pool, so that
+ * a tier removed from the pool is not returned. A load that finds its tier in
+ * the pool locks the pool only to evict, if allocations have put the pool
+ * over its bounds.
+ * <p>
+ * A load that misses reads the tier from the persistent storage with the
+ * pool unlocked. If an eviction that may have written the same address
+ * completes while it reads, the tier it read may be stale, so it reads
+ * again.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class TierPool<T, A> implements BatchStorage<T, A> {
+    /** The persistent storage strategy. */
+    private final Storage<T, A> storage;
+
+    /** The strategy that chooses the tiers to evict. */
+    private final Eviction<T, A> eviction;
+
+    /** The count of stripes of completed evictions. */
+    private final static int EVICTION_STRIPES = 64;
+
+    /**
+     * The tiers in the pool by address, read without locking the pool and
+     * written while the pool is locked.
+     */
+    private final Map<A, Tier<T, A>> tiers = new ConcurrentHashMap<A, Tier<T, A>>();
+
+    /** The size in bytes of each tier in the pool when it was admitted. */
+    private final Map<A, Integer> sizes = new HashMap<A, Integer>();
+
+    /** The maximum count of tiers or zero for no maximum. */
+    private final int maxTiers;
+
+    /** The maximum count of bytes or zero for no maximum. */
+    private final long maxBytes;
+
+    /** The count of bytes in the pool, written while the pool is locked. */
+    private volatile long bytes;
+
+    /**
+     * The count of completed evictions by a stripe of the hash of the address
+     * of the evicted tier, so that a load that misses can tell if the address
+     * it read may have been written while it read.
+     */
+    private final AtomicLongArray evictions = new AtomicLongArray(EVICTION_STRIPES);
+
+    /** The writer used to write back dirty tiers on eviction. */
+    private Stage<T, A> stage;
+
+    /**
+     * Create a tier pool in front of the given storage strategy.
+     * 
+     * @param storage
+     *            The persistent storage strategy.
+     * @param eviction
+     *            The strategy that chooses the tiers to evict.
+     * @param maxTiers
+     *            The maximum count of tiers or zero for no maximum.
+     * @param maxBytes
+     *            The maximum count of bytes or zero for no maximum.
+     */
+    public TierPool(Storage<T, A> storage, Eviction<T, A> eviction, int maxTiers, long maxBytes) {
+        this.storage = storage;
+        this.eviction = eviction;
+        this.maxTiers = maxTiers;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Set the writer used to write back dirty tiers on eviction. The stage is
+     * created with the pool as its storage, so it is set after the pool is
+     * constructed.
+     * 
+     * @param stage
+     *            The writer used to stage dirty pages for writing.
+     */
+    public void setStage(Stage<T, A> stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * Return true if the given count of tiers or the given count of bytes is
+     * over the bounds of the pool.
+     * 
+     * @param count
+     *            The count of tiers.
+     * @param size
+     *            The count of bytes.
+     * @return True if the counts are over the bounds of the pool.
+     */
+    private boolean isFull(int count, long size) {
+        return (maxTiers != 0 && count > maxTiers) || (maxBytes != 0 && size > maxBytes);
+    }
+
+    /**
+     * Add the given tier to the pool.
+     * 
+     * @param tier
+     *            The tier.
+     * @exception IllegalStateException
+     *                If the pool is bounded by bytes and the size of the tier
+     *                is unknown.
+     */
+    private void admit(Tier<T, A> tier) {
+        int size = tier.getByteSize();
+        if (maxBytes != 0 && size == 0) {
+            throw new IllegalStateException("A tier pool bounded by bytes requires tiers that report their size.");
+        }
+        tiers.put(tier.getAddress(), tier);
+        sizes.put(tier.getAddress(), size);
+        bytes += size;
+        eviction.admit(tier);
+    }
+
+    /**
+     * Remove the given tier from the pool.
+     * 
+     * @param tier
+     *            The tier.
+     */
+    private void remove(Tier<T, A> tier) {
+        tiers.remove(tier.getAddress());
+        bytes -= sizes.remove(tier.getAddress());
+        eviction.remove(tier);
+    }
+
+    /**
+     * Choose tiers to evict until the pool would be within its bounds or until
+     * there are no tiers that can be evicted. The pool must be locked. A tier
+     * is chosen only if its write lock can be obtained without waiting, so
+     * that tiers in use by cursors and searches are not evicted, and only if
+     * the write lock is not already held by the current thread, since the
+     * write lock is reentrant. A tier that is in use, or that has been
+     * accessed since it was last offered, is treated as an access so that the
+     * eviction strategy moves on to another tier. The chosen tiers are claimed
+     * so that they cannot be pinned without locking the pool, removed from the
+     * eviction strategy and returned write locked, but they remain in the pool
+     * until they are written.
+     * 
+     * @return The write locked tiers to evict.
+     */
+    private List<Tier<T, A>> victims() {
+        List<Tier<T, A>> victims = new ArrayList<Tier<T, A>>();
+        int count = tiers.size();
+        long size = bytes;
+        for (int attempts = count * 2; attempts != 0 && isFull(count, size); attempts--) {
+            Tier<T, A> victim = eviction.victim();
+            if (victim == null) {
+                break;
+            }
+            if (!victim.clearAccessed() && !victim.isWriteLockedByCurrentThread() && victim.readWriteLock.writeLock().tryLock()) {
+                if (victim.claim()) {
+                    eviction.remove(victim);
+                    victims.add(victim);
+                    count--;
+                    size -= sizes.get(victim.getAddress());
+                    continue;
+                }
+                victim.readWriteLock.writeLock().unlock();
+            }
+            eviction.access(victim);
+        }
+        return victims;
+    }
+
+    /**
+     * Get the stripe of the count of evictions for the given address.
+     * 
+     * @param address
+     *            The address of a tier.
+     * @return The index of the stripe.
+     */
+    private int stripe(A address) {
+        return (address.hashCode() & 0x7fffffff) % EVICTION_STRIPES;
+    }
+
+    /**
+     * Write back the given write locked victims through the stage and then
+     * remove them from the pool, unless a load took a victim back while it was
+     * written, in which case the victim is returned to the eviction strategy.
+     * A victim freed while it was written is already gone from the pool. The
+     * pool must not be locked, the write locks of the victims are
+     * released.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param victims
+     *            The write locked tiers to evict.
+     */
+    private void evict(Stash stash, List<Tier<T, A>> victims) {
+        int written = 0;
+        try {
+            for (Tier<T, A> victim : victims) {
+                stage.write(stash, victim);
+                written++;
+            }
+        } finally {
+            synchronized (this) {
+                for (int i = 0; i < victims.size(); i++) {
+                    Tier<T, A> victim = victims.get(i);
+                    if (tiers.get(victim.getAddress()) == victim) {
+                        if (i < written && victim.isClaimed()) {
+                            tiers.remove(victim.getAddress());
+                            bytes -= sizes.remove(victim.getAddress());
+                            evictions.incrementAndGet(stripe(victim.getAddress()));
+                        } else {
+                            eviction.admit(victim);
+                        }
+                    }
+                    victim.unclaim();
+                }
+            }
+            for (Tier<T, A> victim : victims) {
+                victim.readWriteLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Allocate a tier from the persistent storage and add it to the pool. The
+     * tier is returned pinned. Allocation does not evict, since it has no
+     * stash to write the victims with, the next load will evict if the pool
+     * is over its bounds.
+     * 
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param capacity
+     *            The capacity of the tier.
+     * @return A new pinned tier.
+     */
+    public Tier<T, A> allocate(boolean leaf, int capacity) {
+        Tier<T, A> tier = storage.allocate(leaf, capacity);
+        tier.pin();
+        synchronized (this) {
+            admit(tier);
+        }
+        return tier;
+    }
+
+    /**
+     * Return the tier at the given address from the pool, or load the tier
+     * from the persistent storage and add it to the pool, evicting tiers if
+     * the pool is over its bounds. If two threads load the same tier
+     * concurrently, the first tier added to the pool is returned to both. The
+     * tier is pinned before it is returned, so that it cannot be evicted
+     * before the caller locks it. A tier found in the pool is pinned without
+     * locking the pool, unless it has been claimed for eviction, in which case
+     * it is taken back from the eviction while the pool is locked.
+     * 
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     * @return The pinned tier.
+     */
+    public Tier<T, A> load(Stash stash, A address) {
+        int stripe = stripe(address);
+        for (;;) {
+            long stamp = evictions.get(stripe);
+            Tier<T, A> found = tiers.get(address);
+            if (found != null && found.tryPin()) {
+                if (tiers.get(address) != found) {
+                    found.unpin();
+                    continue;
+                }
+                found.access();
+                if (isFull(tiers.size(), bytes)) {
+                    List<Tier<T, A>> victims;
+                    synchronized (this) {
+                        victims = victims();
+                    }
+                    evict(stash, victims);
+                }
+                return found;
+            }
+            Tier<T, A> loaded = found == null ? storage.load(stash, address) : null;
+            List<Tier<T, A>> victims;
+            synchronized (this) {
+                Tier<T, A> tier = tiers.get(address);
+                if (tier != null) {
+                    tier.reclaim();
+                    eviction.access(tier);
+                    return tier;
+                }
+                if (loaded == null || evictions.get(stripe) != stamp) {
+                    continue;
+                }
+                loaded.pin();
+                admit(loaded);
+                victims = victims();
+            }
+            evict(stash, victims);
+            return loaded;
+        }
+    }
+
+    /**
+     * Write the given tier to the persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tier
+     *            The tier.
+     */
+    public void write(Stash stash, Tier<T, A> tier) {
+        storage.write(stash, tier);
+    }
+
+    /**
+     * Write the given batch of tiers to the persistent storage, as a single
+     * batch if the persistent storage writes batches.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param tiers
+     *            The tiers.
+     */
+    public void writeBatch(Stash stash, List<Tier<T, A>> tiers) {
+        Stage.writeBatch(storage, stash, tiers);
+    }
+
+    /**
+     * Remove the tier at the given address from the pool and free it in the
+     * persistent storage.
+     * 
+     * @param stash
+     *            The type-safe container of out of band data.
+     * @param address
+     *            The address of the tier.
+     */
+    public void free(Stash stash, A address) {
+        synchronized (this) {
+            Tier<T, A> tier = tiers.get(address);
+            if (tier != null) {
+                remove(tier);
+            }
+        }
+        storage.free(stash, address);
+    }
+
+    /**
+     * Get the null address value of the persistent storage.
+     * 
+     * @return The null address value.
+     */
+    public A getNull() {
+        return storage.getNull();
+    }
+
+    /**
+     * Return true if the given address is the null address value of the
+     * persistent storage.
+     * 
+     * @param address
+     *            A storage address.
+     * @return True if the address is null.
+     */
+    public boolean isNull(A address) {
+        return storage.isNull(address);
+    }
+}
@@ -1,5 +1,115 @@
 package com.goodworkalan.strata;
 
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Contains static methods for following the right links of tiers that have
+ * split in B-link mode, common to both searches and inserts.
+ *
+ * @author Alan Gutierrez
+ */
 public class Tiers {
+    /** Extracts the read lock of the tiers followed. */
+    final static LockExtractor READ = new ReadLockExtractor();
+
+    /** Extracts the write lock of the tiers followed. */
+    final static LockExtractor WRITE = new WriteLockExtractor();
+
+    /**
+     * Return true if the given comparable is greater than or equal to the
+     * high key of the given tier, so that the comparable belongs to a tier to
+     * the right of the tier. A null comparable is greater than every high key,
+     * it is used to find the rightmost tier.
+     *
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param tier
+     *            The tier.
+     * @param comparable
+     *            The comparable representing the value to find or null for
+     *            the rightmost tier.
+     * @return True if the comparable belongs to a tier to the right.
+     */
+    static <T, A> boolean isRightOf(Tier<T, A> tier, Comparable<? super T> comparable) {
+        T highKey = tier.getHighKey();
+        return highKey != null && (comparable == null || comparable.compareTo(highKey) >= 0);
+    }
+
+    /**
+     * Follow the right links from the given locked tier to the tier that
+     * contains the given comparable, locking each tier with the given lock
+     * extractor before unlocking the tier to its left, and return the tier
+     * that contains the comparable locked. If the b+tree is not in B-link
+     * mode, the given tier is returned. The high key of a leaf that is
+     * followed by a linked list of duplicate index values applies to the
+     * entire linked list.
+     *
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param tier
+     *            The locked tier.
+     * @param comparable
+     *            The comparable representing the value to find or null for
+     *            the rightmost tier.
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param locker
+     *            The lock extractor used to lock and unlock the tiers.
+     * @return The locked tier that contains the comparable.
+     */
+    static <T, A> Tier<T, A> chase(Stash stash, Structure<T, A> structure, Tier<T, A> tier, Comparable<? super T> comparable, boolean leaf, LockExtractor locker) {
+        if (!structure.isBLink()) {
+            return tier;
+        }
+        while (isRightOf(tier, comparable)) {
+            tier = right(stash, structure, tier, leaf, locker);
+        }
+        return tier;
+    }
 
+    /**
+     * Follow the right link of the given locked tier, locking the tier to the
+     * right with the given lock extractor before unlocking the tier, and
+     * return the tier to the right locked. The right link of a leaf that is
+     * followed by a linked list of duplicate index values is followed past the
+     * leaves of the linked list.
+     *
+     * @param <T>
+     *            The value type of the b+tree objects.
+     * @param <A>
+     *            The address type used to identify an inner or leaf tier.
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param tier
+     *            The locked tier.
+     * @param leaf
+     *            Whether the tier is a leaf.
+     * @param locker
+     *            The lock extractor used to lock and unlock the tiers.
+     * @return The locked tier to the right.
+     */
+    static <T, A> Tier<T, A> right(Stash stash, Structure<T, A> structure, Tier<T, A> tier, boolean leaf, LockExtractor locker) {
+        Comparable<? super T> last = null;
+        if (leaf && tier.getSize() != 0) {
+            last = structure.getComparableFactory().newComparable(stash, tier.getRecord(tier.getSize() - 1));
+        }
+        do {
+            Tier<T, A> next = structure.getStorage().load(stash, tier.getNext());
+            locker.getLock(next.readWriteLock).lock();
+            structure.unpin(next);
+            locker.getLock(tier.readWriteLock).unlock();
+            tier = next;
+        } while (last != null && tier.getSize() != 0 && last.compareTo(tier.getRecord(0)) == 0);
+        return tier;
+    }
 }
@@ -0,0 +1,112 @@
+package com.goodworkalan.strata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record serializer for records whose encodings vary in length up to a
+ * maximum length, such as strings. The length of the encoding is written as a
+ * short before the encoding, so that the subclass decodes exactly the bytes
+ * that were encoded, directly from the buffer.
+ * 
+ * @author Alan Gutierrez
+ * 
+ * @param <T>
+ *            The value type of the b+tree objects.
+ */
+public abstract class VariableRecordSerializer<T>
+implements RecordSerializer<T> {
+    /** The maximum length of an encoded record. */
+    private final int maximumLength;
+
+    /**
+     * Create a variable width record serializer.
+     * 
+     * @param maximumLength
+     *            The maximum length of an encoded record.
+     */
+    protected VariableRecordSerializer(int maximumLength) {
+        if (maximumLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException();
+        }
+        this.maximumLength = maximumLength;
+    }
+
+    /**
+     * Get the width of the slot that holds an encoded record and its length.
+     * 
+     * @return The width of a record slot in bytes.
+     */
+    public int getWidth() {
+        return 2 + maximumLength;
+    }
+
+    /**
+     * Get the length of the encoding of the given record.
+     * 
+     * @param record
+     *            The record.
+     * @return The length of the encoded record.
+     */
+    protected abstract int getLength(T record);
+
+    /**
+     * Decode a record of the given length from the given buffer at the given
+     * offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the encoded record.
+     * @param length
+     *            The length of the encoded record.
+     * @return The record.
+     */
+    protected abstract T decode(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Encode the given record in the given buffer at the given offset.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the encoded record.
+     * @param record
+     *            The record.
+     */
+    protected abstract void encode(ByteBuffer buffer, int offset, T record);
+
+    /**
+     * Read the length of the encoding and decode the record.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the record slot.
+     * @return The record.
+     */
+    public T read(ByteBuffer buffer, int offset) {
+        return decode(buffer, offset + 2, buffer.getShort(offset));
+    }
+
+    /**
+     * Write the length of the encoding and encode the record.
+     * 
+     * @param buffer
+     *            The buffer.
+     * @param offset
+     *            The offset of the record slot.
+     * @param record
+     *            The record.
+     * @exception IllegalArgumentException
+     *                If the encoding of the record is longer than the maximum
+     *                length.
+     */
+    public void write(ByteBuffer buffer, int offset, T record) {
+        int length = getLength(record);
+        if (length > maximumLength) {
+            throw new IllegalArgumentException();
+        }
+        buffer.putShort(offset, (short) length);
+        encode(buffer, offset + 2, record);
+    }
+}
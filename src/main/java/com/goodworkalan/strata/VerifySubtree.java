@@ -0,0 +1,275 @@
+package com.goodworkalan.strata;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+import com.goodworkalan.stash.Stash;
+
+/**
+ * Verifies the structure of a subtree of a b+tree, forking a task for each
+ * child of an inner tier whose children are inner tiers, so that the subtrees
+ * are verified in parallel. The leaves of an inner tier whose children are
+ * leaves are verified by the task of that inner tier.
+ * <p>
+ * An inner tier is verified to be within capacity, to have a null first pivot
+ * and pivots that are in order and within the bounds of the branch of the
+ * inner tier. A leaf is verified to be within capacity, to have records in
+ * order and within the bounds of its branch, and to begin with the pivot of
+ * its branch. The linked list of duplicate index values that may follow a
+ * leaf is verified to continue the last record of the leaf and to end at the
+ * leaf that follows the branch. Every inner tier whose children are leaves
+ * is verified to be at the same depth.
+ * <p>
+ * The faults found are returned rather than thrown, so that every fault of
+ * the b+tree is reported.
+ * <p>
+ * The b+tree is verified while inserts and deletes are excluded, so the
+ * tiers are read without locking them. A leaf is unpinned as soon as it is
+ * loaded, since its contents cannot change while it is read, and an inner
+ * tier is unpinned once its subtree is verified.
+ *
+ * @author Alan Gutierrez
+ *
+ * @param <T>
+ *            The value type of the b+tree objects.
+ * @param <A>
+ *            The address type used to identify an inner or leaf tier.
+ */
+final class VerifySubtree<T, A>
+extends RecursiveTask<List<Fault>> {
+    /** The serial version id. */
+    private static final long serialVersionUID = 1L;
+
+    /** The type-safe container of out of band data. */
+    private final Stash stash;
+
+    /** The collection of the core services of the b+tree. */
+    private final Structure<T, A> structure;
+
+    /** The inner tier at the root of the subtree. */
+    private final Tier<T, A> inner;
+
+    /** The lower bound of the subtree or null if unbounded. */
+    private final T lower;
+
+    /** The upper bound of the subtree or null if unbounded. */
+    private final T upper;
+
+    /** The depth of the inner tier. */
+    private final int depth;
+
+    /** The depth of the inner tiers whose children are leaves. */
+    private final int leafDepth;
+
+    /** The address of the first leaf after the subtree. */
+    private final A following;
+
+    /** The faults found in the subtree. */
+    private final List<Fault> faults = new ArrayList<Fault>();
+
+    /**
+     * Create a task that verifies the subtree of the given inner tier.
+     *
+     * @param stash
+     *            A type-safe container of out of band data.
+     * @param structure
+     *            The collection of the core services of the b+tree.
+     * @param inner
+     *            The inner tier at the root of the subtree.
+     * @param lower
+     *            The lower bound of the subtree or null if unbounded.
+     * @param upper
+     *            The upper bound of the subtree or null if unbounded.
+     * @param depth
+     *            The depth of the inner tier.
+     * @param leafDepth
+     *            The depth of the inner tiers whose children are leaves.
+     * @param following
+     *            The address of the first leaf after the subtree.
+     */
+    public VerifySubtree(Stash stash, Structure<T, A> structure, Tier<T, A> inner, T lower, T upper, int depth, int leafDepth, A following) {
+        this.stash = stash;
+        this.structure = structure;
+        this.inner = inner;
+        this.lower = lower;
+        this.upper = upper;
+        this.depth = depth;
+        this.leafDepth = leafDepth;
+        this.following = following;
+    }
+
+    /**
+     * Compare two records.
+     *
+     * @param left
+     *            The left record.
+     * @param right
+     *            The right record.
+     * @return The comparison of the left record to the right record.
+     */
+    private int compare(T left, T right) {
+        return structure.getComparableFactory().newComparable(stash, left).compareTo(right);
+    }
+
+    /**
+     * Record a fault in the given tier.
+     *
+     * @param type
+     *            The type of fault.
+     * @param tier
+     *            The tier.
+     * @param message
+     *            A description of the fault.
+     */
+    private void fault(FaultType type, Tier<T, A> tier, String message) {
+        faults.add(new Fault(type, tier.getAddress(), message));
+    }
+
+    /**
+     * Get the address of the leftmost leaf of the subtree of the child at the
+     * given index of the inner tier, or the address of the leaf that follows
+     * the subtree of the inner tier if the index is past the last child.
+     *
+     * @param index
+     *            The index of the child.
+     * @return The address of the leftmost leaf of the child.
+     */
+    private A getLeftmost(int index) {
+        if (index == inner.getSize()) {
+            return following;
+        }
+        A address = inner.getChildAddress(index);
+        boolean leaf = inner.isChildLeaf();
+        while (!leaf) {
+            Tier<T, A> tier = structure.getStorage().load(stash, address);
+            address = tier.getChildAddress(0);
+            leaf = tier.isChildLeaf();
+            structure.unpin(tier);
+        }
+        return address;
+    }
+
+    /**
+     * Verify the inner tier and the subtrees of its children.
+     *
+     * @return The faults found in the subtree.
+     */
+    @Override
+    protected List<Fault> compute() {
+        int size = inner.getSize();
+        if (size == 0) {
+            fault(FaultType.EMPTY, inner, "inner tier has no branches");
+            return faults;
+        }
+        if (size > structure.getInnerSize()) {
+            fault(FaultType.CAPACITY, inner, "inner tier holds " + size + " branches");
+        }
+        if (inner.getRecord(0) != null) {
+            fault(FaultType.PIVOT, inner, "first pivot is not null");
+        }
+        if (structure.isBLink() && inner.getHighKey() != null) {
+            fault(FaultType.LINK, inner, "inner tier split without a branch to its sibling");
+        }
+        for (int i = 1; i < size; i++) {
+            T pivot = inner.getRecord(i);
+            if (pivot == null || (i > 1 && compare(inner.getRecord(i - 1), pivot) >= 0)) {
+                fault(FaultType.ORDER, inner, "pivot " + i + " is out of order");
+            } else if ((lower != null && compare(lower, pivot) >= 0) || (upper != null && compare(pivot, upper) >= 0)) {
+                fault(FaultType.PIVOT, inner, "pivot " + i + " is outside of the bounds of the inner tier");
+            }
+        }
+        if (inner.isChildLeaf() != (depth == leafDepth)) {
+            fault(FaultType.DEPTH, inner, "leaves are not at depth " + (leafDepth + 1));
+        } else if (inner.isChildLeaf()) {
+            for (int i = 0; i < size; i++) {
+                verifyLeaves(i);
+            }
+        } else {
+            List<VerifySubtree<T, A>> tasks = new ArrayList<VerifySubtree<T, A>>();
+            for (int i = 0; i < size; i++) {
+                Tier<T, A> child = structure.getStorage().load(stash, inner.getChildAddress(i));
+                T childLower = i == 0 ? lower : inner.getRecord(i);
+                T childUpper = i + 1 < size ? inner.getRecord(i + 1) : upper;
+                tasks.add(new VerifySubtree<T, A>(stash, structure, child, childLower, childUpper, depth + 1, leafDepth, getLeftmost(i + 1)));
+            }
+            for (VerifySubtree<T, A> task : invokeAll(tasks)) {
+                faults.addAll(task.join());
+                structure.unpin(task.inner);
+            }
+        }
+        return faults;
+    }
+
+    /**
+     * Verify the leaf at the given index of the inner tier and the linked list
+     * of duplicate index values that follows it.
+     * <p>
+     * The records of a branch are greater than or equal to the pivot of the
+     * branch and less than or equal to the pivot of the subsequent branch.
+     *
+     * @param index
+     *            The index of the leaf.
+     */
+    private void verifyLeaves(int index) {
+        Storage<T, A> storage = structure.getStorage();
+        T childLower = index == 0 ? lower : inner.getRecord(index);
+        T childUpper = index + 1 < inner.getSize() ? inner.getRecord(index + 1) : upper;
+        A stop = getLeftmost(index + 1);
+        Set<A> visited = new HashSet<A>();
+        Tier<T, A> previous = null;
+        A address = inner.getChildAddress(index);
+        while (!storage.isNull(address) && !address.equals(stop)) {
+            if (!visited.add(address)) {
+                fault(FaultType.LINK, previous, "linked list of leaves is circular");
+                return;
+            }
+            Tier<T, A> leaf = storage.load(stash, address);
+            structure.unpin(leaf);
+            if (structure.isBLink() && leaf.getHighKey() != null) {
+                fault(FaultType.LINK, leaf, "leaf split without a branch to its sibling");
+            }
+            int size = leaf.getSize();
+            if (size == 0) {
+                if (depth != 0 || inner.getSize() != 1 || previous != null || !storage.isNull(leaf.getNext())) {
+                    fault(FaultType.EMPTY, leaf, "leaf is empty");
+                }
+            } else {
+                if (size > structure.getLeafSize()) {
+                    fault(FaultType.CAPACITY, leaf, "leaf holds " + size + " records");
+                }
+                T first = leaf.getRecord(0);
+                if (previous == null) {
+                    if (childLower != null && compare(childLower, first) != 0) {
+                        fault(FaultType.PIVOT, leaf, "first record does not match the pivot");
+                    }
+                } else if (compare(previous.getRecord(previous.getSize() - 1), first) != 0) {
+                    fault(FaultType.ORDER, leaf, "linked list leaf does not continue the duplicate index values");
+                }
+                for (int i = 1; i < size; i++) {
+                    if (compare(leaf.getRecord(i - 1), leaf.getRecord(i)) > 0) {
+                        fault(FaultType.ORDER, leaf, "record " + i + " is out of order");
+                    }
+                }
+                if ((childLower != null && compare(childLower, first) > 0) || (childUpper != null && compare(leaf.getRecord(size - 1), childUpper) > 0)) {
+                    fault(FaultType.PIVOT, leaf, "records are outside of the bounds of the leaf");
+                }
+            }
+            A next = leaf.getNext();
+            if (structure.isReverseLinked() && !storage.isNull(next)) {
+                Tier<T, A> subsequent = storage.load(stash, next);
+                structure.unpin(subsequent);
+                if (!leaf.getAddress().equals(subsequent.getPrevious())) {
+                    fault(FaultType.LINK, leaf, "previous address of the next leaf does not reference the leaf");
+                }
+            }
+            previous = leaf;
+            address = next;
+        }
+        if (!storage.isNull(stop) && storage.isNull(address)) {
+            fault(FaultType.LINK, previous == null ? inner : previous, "linked list of leaves does not reach the next leaf");
+        }
+    }
+}
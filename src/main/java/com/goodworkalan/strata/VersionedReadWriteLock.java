@@ -0,0 +1,176 @@
+package com.goodworkalan.strata;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A reentrant read write lock that stamps a new version of the data it guards
+ * each time the write lock is acquired and released, so that a reader can read
+ * the data optimistically, without acquiring the lock, and then validate that
+ * no writer held the lock while it read.
+ * <p>
+ * The locking of readers and writers is that of a reentrant read write lock,
+ * so that the lock coupling of the b+tree is unchanged. The versions are
+ * stamped by a stamped lock that is write locked for as long as the write lock
+ * is held by the outermost hold of its owner. The stamped lock is only ever
+ * write locked by the owner of the write lock, so acquiring it never blocks.
+ * An optimistic reader never writes to the shared state of either lock.
+ *
+ * @author Alan Gutierrez
+ */
+final class VersionedReadWriteLock implements ReadWriteLock {
+    /** The lock that excludes readers and writers. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** The lock that stamps the versions. */
+    private final StampedLock version = new StampedLock();
+
+    /** The write lock that stamps a new version. */
+    private final Lock writeLock = new WriteLock();
+
+    /** The stamp of the version write lock, set by the owner of the lock. */
+    private long stamp;
+
+    /**
+     * Get the read lock, which does not affect the version.
+     *
+     * @return The read lock.
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Get the write lock, which stamps a new version when it is acquired and
+     * again when it is released.
+     *
+     * @return The write lock.
+     */
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * Get a stamp of the current version to validate after an optimistic
+     * read, or zero if the write lock is held.
+     *
+     * @return A stamp of the current version or zero.
+     */
+    public long tryOptimisticRead() {
+        return version.tryOptimisticRead();
+    }
+
+    /**
+     * Return true if the write lock has not been acquired since the given
+     * stamp was issued, so that the data read since then is consistent.
+     *
+     * @param stamp
+     *            A stamp issued by {@link #tryOptimisticRead()}.
+     * @return True if the data read since the stamp was issued is consistent.
+     */
+    public boolean validate(long stamp) {
+        return version.validate(stamp);
+    }
+
+    /**
+     * Return true if the write lock is held by the current thread, in which
+     * case an attempt by the current thread to acquire the write lock will
+     * succeed as a reentrant hold.
+     *
+     * @return True if the write lock is held by the current thread.
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Stamp a new version if the write lock was just acquired by the
+     * outermost hold of its owner.
+     */
+    private void acquired() {
+        if (lock.getWriteHoldCount() == 1) {
+            stamp = version.writeLock();
+        }
+    }
+
+    /**
+     * The write lock that stamps a new version when it is acquired and again
+     * when it is released by the outermost hold of its owner.
+     */
+    private final class WriteLock implements Lock {
+        /**
+         * Acquire the write lock.
+         */
+        public void lock() {
+            lock.writeLock().lock();
+            acquired();
+        }
+
+        /**
+         * Acquire the write lock unless the current thread is interrupted.
+         *
+         * @throws InterruptedException
+         *             If the current thread is interrupted.
+         */
+        public void lockInterruptibly() throws InterruptedException {
+            lock.writeLock().lockInterruptibly();
+            acquired();
+        }
+
+        /**
+         * Acquire the write lock only if it is free.
+         *
+         * @return True if the lock was acquired.
+         */
+        public boolean tryLock() {
+            if (lock.writeLock().tryLock()) {
+                acquired();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Acquire the write lock if it becomes free within the given time.
+         *
+         * @param time
+         *            The maximum time to wait.
+         * @param unit
+         *            The unit of the time.
+         * @return True if the lock was acquired.
+         * @throws InterruptedException
+         *             If the current thread is interrupted.
+         */
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (lock.writeLock().tryLock(time, unit)) {
+                acquired();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Release the write lock, stamping a new version if this is the
+         * outermost hold of the owner.
+         */
+        public void unlock() {
+            if (lock.getWriteHoldCount() == 1) {
+                version.unlockWrite(stamp);
+            }
+            lock.writeLock().unlock();
+        }
+
+        /**
+         * Create a condition of the write lock.
+         *
+         * @return A new condition.
+         */
+        public Condition newCondition() {
+            return lock.writeLock().newCondition();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.goodworkalan.strata;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork join pool used to walk the subtrees of a b+tree in parallel when
+ * the whole of the b+tree is visited, as when it is destroyed or verified.
+ * <p>
+ * There is a single pool for all b+trees, created the first time a b+tree is
+ * walked in parallel. The worker threads of a fork join pool are daemon
+ * threads, so the pool does not need to be shut down.
+ *
+ * @author Alan Gutierrez
+ */
+final class Workers {
+    /** The fork join pool. */
+    public final static ForkJoinPool POOL = new ForkJoinPool();
+
+    /**
+     * The pool is a static member only.
+     */
+    private Workers() {
+    }
+}
@@ -8,8 +8,16 @@ public class CharacterTier extends Tier<Character, CharacterTier> {
     
     private final List<CharacterTier> children = new ArrayList<CharacterTier>();
     
+    private final List<Long> counts = new ArrayList<Long>();
+    
+    private final List<Object> summaries = new ArrayList<Object>();
+    
     private CharacterTier next;
     
+    private CharacterTier previous;
+
+    private Character highKey;
+
     private boolean childLeaf;
 
     public CharacterTier() {
@@ -19,6 +27,8 @@ public class CharacterTier extends Tier<Character, CharacterTier> {
     public void addBranch(int index, Character record, CharacterTier address) {
         records.add(index, record);
         children.add(index, address);
+        counts.add(index, 0L);
+        summaries.add(index, null);
     }
     
     @Override
@@ -31,6 +41,8 @@ public class CharacterTier extends Tier<Character, CharacterTier> {
             records.remove(start);
             if (children.size() != 0) {
                 children.remove(start);
+                counts.remove(start);
+                summaries.remove(start);
             }
         }
     }
@@ -44,11 +56,41 @@ public class CharacterTier extends Tier<Character, CharacterTier> {
         return children.get(index);
     }
     
+    @Override
+    public long getCount(int index) {
+        return counts.get(index);
+    }
+    
+    @Override
+    public void setCount(int index, long count) {
+        counts.set(index, count);
+    }
+    
+    @Override
+    public Object getSummary(int index) {
+        return summaries.get(index);
+    }
+    
+    @Override
+    public void setSummary(int index, Object summary) {
+        summaries.set(index, summary);
+    }
+    
     @Override
     public CharacterTier getNext() {
         return next;
     }
     
+    @Override
+    public CharacterTier getPrevious() {
+        return previous;
+    }
+    
+    @Override
+    public Character getHighKey() {
+        return highKey;
+    }
+
     @Override
     public Character getRecord(int index) {
         return records.get(index);
@@ -72,6 +114,16 @@ public class CharacterTier extends Tier<Character, CharacterTier> {
         this.next = next;
     }
     
+    @Override
+    public void setPrevious(CharacterTier previous) {
+        this.previous = previous;
+    }
+    
+    @Override
+    public void setHighKey(Character highKey) {
+        this.highKey = highKey;
+    }
+
     @Override
     public void setRecord(int index, Character record) {
         records.set(index, record);